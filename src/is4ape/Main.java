@@ -5,17 +5,21 @@ import java.util.List;
 import java.util.Random;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import is4ape.bench.loop.Looping;
+import is4ape.bench.scheduler_hh.LikelihoodCache;
 import is4ape.bench.scheduler_hh.SchedulerHH;
 import is4ape.bench.scheduler_hh.SchedulerHH.Configuration;
 import is4ape.bench.sort.InputSort;
-import is4ape.pm.memoize.MemoizedBiFunction;
+import is4ape.bench.sort.SelectionSignatures;
+import is4ape.pm.ImportanceSamplingModel;
+import is4ape.pm.specialize.SpecializedISModel;
 import is4ape.poc.PoC;
 
 /**
  * This is the main class for testing our proof of concept (PoC).
- * It illustrates an example setup, for four different scenarios
+ * It illustrates an example setup, for five different scenarios
  * 
  * @author Steven Adriaensen
  *
@@ -26,7 +30,8 @@ public class Main {
 		LOOP_DISCRETE, 		//looping problem with discretized configuration space
 		LOOP_CONTINUOUS, 	//looping problem with continuous configuration space
 		INPUTSORT, 			//static sorting ASP
-		SCHEDULER 			//metaheuristic scheduler
+		SCHEDULER, 			//metaheuristic scheduler
+		INPUTSORT_LIVE 		//static sorting ASP, actually running (and timing) the algorithms
 	}
 	
 	//performance estimation modes supported by our PoC
@@ -37,16 +42,19 @@ public class Main {
 	
 	/**
 	 * A convenience method for running PoC (w/wo IS) using default parameter setting 
-	 * on one of the four different scenarios.
+	 * on one of the five different scenarios.
 	 * 
 	 * @param args: This takes 4-5 command-line arguments, in order:
 	 *     args[0]: scenario on which to run PoC 
-	 *              (0: LOOP_DISCRETE, 1: LOOP_CONTINUOUS, 2: INPUTSORT, 3: SCHEDULER) 
+	 *              (0: LOOP_DISCRETE, 1: LOOP_CONTINUOUS, 2: INPUTSORT, 3: SCHEDULER, 4: INPUTSORT_LIVE) 
 	 *     args[1]: performance estimation mode used 
 	 *              (0: SAMPLE_AVERAGE, 1: IMPORTANCE SAMPLING) 
 	 *     args[2]: number of candidate evaluations after which to terminate (~ tuning budget, N)
 	 *     args[3]: path to file to which information about the incumbent design is written at any time.
 	 *     args[4]: OPTIONAL: seed for the random generator
+	 *     
+	 * In the looping scenarios, -Dpoc.specialize=true uses an IS model specialized for the scenario (see SpecializedISModel).
+	 * In IS mode, -Dpoc.screen_tol sets the tolerance used to screen proposals using approximate IS estimates (default 0: no screening).
 	 */
 	public static void main(String[] args) {
 		//parse command line arguments
@@ -83,16 +91,27 @@ public class Main {
 	public static void run(Scenario scenario, Estimation mode , double K, int L, int N, File output_file, Random rng) throws Exception{
 		@SuppressWarnings("rawtypes")
 		PoC poc = null;
+		Runnable report = null; //prints scenario specific statistics, after the run (if any)
+		double screen_tol = Double.parseDouble(System.getProperty("poc.screen_tol", "0"));
 		if(scenario.equals(Scenario.LOOP_DISCRETE) || scenario.equals(Scenario.LOOP_CONTINUOUS)){
 			//<LOOPING PROBLEM>
 			//SA or IS
-			BiFunction<List<Double>,Looping.ExecutionInfo,Double> pr = null;
+			BiFunction<Looping.Design,Looping.ExecutionInfo,Double> pr = null;
+			Supplier<ImportanceSamplingModel<Looping.Design,Looping.ExecutionInfo>> is_model = null;
 			if(mode.equals(Estimation.IMPORTANCE_SAMPLING)){
 				pr = Looping::getLikelihood;
+				//weights of long executions, whose likelihoods underflow, are computed from log-likelihoods
+				if(Boolean.getBoolean("poc.specialize")){
+					is_model = () -> SpecializedISModel.create(Looping.ExecutionInfo.class, "p", Looping.class, "getLikelihood", "getLogLikelihood");
+				}else{
+					is_model = () -> new ImportanceSamplingModel<Looping.Design,Looping.ExecutionInfo>(
+							Looping.ExecutionInfo::p, Looping::getLikelihood, Looping::getLogLikelihood,
+							Looping::getLikelihoods, Looping::getLogLikelihoods);
+				}
 			}
 			//DISCRETE or CONTINUOUS
-			Function<Random,List<Double>> globalPrior;
-			BiFunction<List<Double>,Random,List<Double>> localPrior;
+			Function<Random,Looping.Design> globalPrior;
+			BiFunction<Looping.Design,Random,Looping.Design> localPrior;
 			if(scenario.equals(Scenario.LOOP_DISCRETE)){
 				globalPrior = Looping::uniformGlobalPriorDiscrete;
 				localPrior = Looping::uniformLocalPriorDiscrete;
@@ -101,7 +120,7 @@ public class Main {
 				localPrior = Looping::uniformLocalPriorContinuous;
 			}
 			//create instance of our PoC
-			poc = new PoC<Random,List<Double>,Looping.ExecutionInfo>(
+			poc = new PoC<Random,Looping.Design,Looping.ExecutionInfo>(
 							Looping::run,
 							globalPrior,
 							localPrior,
@@ -111,20 +130,24 @@ public class Main {
 							K,
 							L,
 							N,
-							Looping.generateInitial());
+							Looping.generateInitial(),
+							screen_tol,
+							null,
+							is_model);
 		}else if(scenario.equals(Scenario.INPUTSORT)){
-			File data_dir = new File("sort_data");
-			if(!data_dir.exists() || data_dir.listFiles().length == 0) {
-				throw new Exception("sort_data not found: Please extract the contents of sort_data.zip to the sort_data directory.");
+			if(!InputSort.dataAvailable()) {
+				throw new Exception("sort_data not found: Please place sort_data.zip in the working directory (or extract its contents to the sort_data directory).");
 			}
 			//SA or IS
+			InputSort.Executions executions = InputSort.newExecutions(); //per run
+			SelectionSignatures signatures = InputSort.newSignatures(executions); //per run, shared by PoC and pr
 			BiFunction<List<Double>,InputSort.ExecutionInfo,Double> pr = null;
 			if(mode.equals(Estimation.IMPORTANCE_SAMPLING)){
-				pr = InputSort::pr;
+				pr = (List<Double> theta, InputSort.ExecutionInfo e) -> InputSort.pr(signatures,theta,e);
 			}
 			//create instance of our PoC
 			poc = new PoC<Integer,List<Double>,InputSort.ExecutionInfo>(
-							(Integer seq_id, List<Double> c) -> {return InputSort.run(seq_id,c,rng);},
+							(Integer seq_id, List<Double> c) -> {return InputSort.run(executions,seq_id,c,rng);},
 							InputSort::uniformGlobalPrior,
 							InputSort::gaussianLocalPrior,
 							InputSort::sample_D_training,
@@ -133,20 +156,44 @@ public class Main {
 							K,
 							L,
 							N,
-							null);
+							null,
+							screen_tol,
+							signatures); //designs making the same selections share IS estimates
+		}else if(scenario.equals(Scenario.INPUTSORT_LIVE)){
+			//SA or IS
+			InputSort.Executions executions = InputSort.newLiveExecutions(); //per run, including the features of its inputs
+			SelectionSignatures signatures = InputSort.newSignatures(executions); //per run, shared by PoC and pr
+			BiFunction<List<Double>,InputSort.ExecutionInfo,Double> pr = null;
+			if(mode.equals(Estimation.IMPORTANCE_SAMPLING)){
+				pr = (List<Double> theta, InputSort.ExecutionInfo e) -> InputSort.pr(signatures,theta,e);
+			}
+			//create instance of our PoC
+			poc = new PoC<int[],List<Double>,InputSort.ExecutionInfo>(
+							(int[] seq, List<Double> c) -> {return InputSort.runLive(executions,seq,c);},
+							InputSort::uniformGlobalPrior,
+							InputSort::gaussianLocalPrior,
+							InputSort::sample_D_live,
+							pr,
+							InputSort::p,
+							K,
+							L,
+							N,
+							null,
+							screen_tol,
+							signatures);
 		}else if(scenario.equals(Scenario.SCHEDULER)){
-			File data_dir = new File("hh_data");
-			if(!data_dir.exists() || data_dir.listFiles().length == 0) {
-				throw new Exception("hh data not found: Please extract the contents of hh_data.zip to the hh_data directory.");
+			if(!SchedulerHH.dataAvailable()) {
+				throw new Exception("hh data not found: Please place hh_data.zip in the working directory (or extract its contents to the HH_data directory).");
 			}
 			//SA or IS
+			LikelihoodCache likelihoods = SchedulerHH.newLikelihoodCache(); //per run
 			BiFunction<Configuration,SchedulerHH.ExecutionInfo,Double> pr = null;
 			if(mode.equals(Estimation.IMPORTANCE_SAMPLING)){
-				pr = MemoizedBiFunction.from(SchedulerHH::getLikelihood);
+				pr = (Configuration c, SchedulerHH.ExecutionInfo e) -> SchedulerHH.getLikelihood(likelihoods,c,e); //cached per (policy, input)
 			}
 			//create instance of our PoC
 			poc = new PoC<SchedulerHH.Input,Configuration,SchedulerHH.ExecutionInfo>(
-							SchedulerHH::run,
+							(SchedulerHH.Input x, Configuration c) -> SchedulerHH.run(likelihoods,x,c),
 							Configuration::globalPrior,
 							Configuration::localPrior,
 							SchedulerHH::sample_D_training,
@@ -155,10 +202,15 @@ public class Main {
 							K,
 							L,
 							N,
-							null); //max_evals
+							null,
+							screen_tol);
+			report = () -> System.out.println(SchedulerHH.stats(likelihoods));
 		}else {
 			throw new Exception("Unknown scenario: "+scenario);
 		}
 		poc.minimize(rng,output_file);
+		if(report != null){
+			report.run();
+		}
 	}
 }
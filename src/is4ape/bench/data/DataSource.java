@@ -0,0 +1,86 @@
+package is4ape.bench.data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Provides access to the (many, small) data files of a scenario by name,
+ * independently of whether these were extracted to a directory, or are still in their zip archive.
+ * Close the data source once all files needed were read (e.g. after loading them).
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public interface DataSource extends AutoCloseable {
+
+	/**
+	 * @return true iff a file with the given name is available.
+	 */
+	boolean contains(String name);
+
+	/**
+	 * @return The names of all files available.
+	 */
+	List<String> names();
+
+	/**
+	 * Opens the file with the given name.
+	 */
+	InputStream open(String name) throws IOException;
+
+	/**
+	 * Opens the file with the given name, as text.
+	 */
+	default BufferedReader reader(String name) throws IOException{
+		return new BufferedReader(new InputStreamReader(open(name),StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Releases the resources held (e.g. the archive), after which files can no longer be opened (unless cached).
+	 */
+	@Override
+	void close() throws IOException;
+
+	/**
+	 * Locates the data of a scenario: the directory dir if it exists (and is not empty), otherwise the archive zip.
+	 * If the system property data.cache is set (-Ddata.cache=true), archives are decompressed into memory when opened.
+	 *
+	 * @return The data source, null if neither is available.
+	 * @throws IOException: if the archive cannot be read.
+	 */
+	static DataSource find(String dir, String zip) throws IOException{
+		File folder = new File(dir);
+		String[] contents = folder.list();
+		if(contents != null && contents.length > 0){
+			return new DirectorySource(folder);
+		}
+		File archive = new File(zip);
+		if(archive.isFile()){
+			ZipSource source = new ZipSource(archive);
+			if(Boolean.getBoolean("data.cache")){
+				try{
+					source.cache();
+				}catch(RuntimeException e){
+					source.close();
+					throw e;
+				}
+			}
+			return source;
+		}
+		return null;
+	}
+
+	/**
+	 * @return true iff the data of a scenario is available (without opening it), see find.
+	 */
+	static boolean available(String dir, String zip){
+		String[] contents = new File(dir).list();
+		return (contents != null && contents.length > 0) || new File(zip).isFile();
+	}
+
+}
@@ -0,0 +1,50 @@
+package is4ape.bench.data;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Data files extracted to a directory.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class DirectorySource implements DataSource {
+	final File folder;
+
+	public DirectorySource(File folder){
+		this.folder = folder;
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return new File(folder,name).isFile();
+	}
+
+	@Override
+	public List<String> names() {
+		String[] names = folder.list();
+		return names == null? Collections.emptyList() : Arrays.asList(names);
+	}
+
+	@Override
+	public InputStream open(String name) throws IOException {
+		return new BufferedInputStream(new FileInputStream(new File(folder,name)));
+	}
+
+	@Override
+	public void close() {
+		//nothing to release, files are opened (and closed) one at a time
+	}
+
+	public String toString(){
+		return folder.getPath();
+	}
+
+}
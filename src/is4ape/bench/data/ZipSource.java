@@ -0,0 +1,105 @@
+package is4ape.bench.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Data files read directly from a zip archive, i.e. without extracting it.
+ *
+ * The central directory of the archive is read once, when opened, and indexed by file name
+ * (ignoring the directories within the archive), after which files are served by name
+ * (random access, decompressed on the fly). Optionally, all files are decompressed (in parallel)
+ * into an in-memory cache, see cache(), after which the archive is closed.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class ZipSource implements DataSource {
+	final File file;
+	final ZipFile zip;
+	final Map<String,ZipEntry> entries;
+	Map<String,byte[]> cached; //null if not cached
+
+	public ZipSource(File file) throws IOException{
+		this.file = file;
+		zip = new ZipFile(file);
+		Map<String,ZipEntry> entries = new HashMap<String,ZipEntry>();
+		Enumeration<? extends ZipEntry> it = zip.entries();
+		while(it.hasMoreElements()){
+			ZipEntry entry = it.nextElement();
+			if(!entry.isDirectory()){
+				String name = entry.getName();
+				entries.putIfAbsent(name.substring(name.lastIndexOf('/')+1), entry);
+			}
+		}
+		this.entries = Collections.unmodifiableMap(entries);
+	}
+
+	/**
+	 * Decompresses all files (in parallel) into an in-memory cache, and closes the archive.
+	 */
+	public void cache(){
+		Map<String,byte[]> cached = new ConcurrentHashMap<String,byte[]>(2*entries.size());
+		entries.entrySet().parallelStream().forEach(entry -> {
+			try(InputStream in = zip.getInputStream(entry.getValue())){
+				cached.put(entry.getKey(), in.readAllBytes());
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		});
+		this.cached = cached;
+		try{
+			zip.close();
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	@Override
+	public List<String> names() {
+		return new ArrayList<String>(entries.keySet());
+	}
+
+	@Override
+	public InputStream open(String name) throws IOException {
+		if(cached != null){
+			byte[] bytes = cached.get(name);
+			if(bytes != null){
+				return new ByteArrayInputStream(bytes);
+			}
+		}
+		ZipEntry entry = entries.get(name);
+		if(entry == null){
+			throw new FileNotFoundException(name+" (not in "+file+")");
+		}
+		return zip.getInputStream(entry);
+	}
+
+	@Override
+	public void close() throws IOException {
+		zip.close(); //has no effect if closed already
+	}
+
+	public String toString(){
+		return file.getPath();
+	}
+
+}
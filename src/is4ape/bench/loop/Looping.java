@@ -1,17 +1,107 @@
 package is4ape.bench.loop;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
 
 /**
  * This class contains all logic for the looping problem scenario
- * 
+ *
+ * The number of iterations N (default 20) can be set using -Dloop.length
+ *
  * @author Steven Adriaensen
  *
  */
 public class Looping{
-	private static final int N = 20; //the number of iterations performed
+	private static final int N = Integer.getInteger("loop.length", 20); //the number of iterations performed
+	private static final int CHUNK = 1024; //# executions per generator, see run(SplittableRandom,Design,int)
+
+	/**
+	 * A design, i.e. theta[i] is the probability of performing iteration i+1, after i iterations.
+	 * Designs are compared by value, and printed as lists, i.e. [theta[0], theta[1], ...].
+	 *
+	 * As the likelihood of an execution only depends on its number of iterations k, each design has a table of likelihoods
+	 * (indexed by k), computed once (in O(N)), using prefix products of theta, i.e.
+	 *   likelihoods[k] = theta[0]*...*theta[k-1]*(1-theta[k]) (k < N)
+	 *   likelihoods[N] = theta[0]*...*theta[N-1]
+	 * The log-likelihoods are tabulated as well (on first use), these do not underflow for long loops (see -Dloop.length),
+	 * and are used by the IS model to compute the weights of executions whose likelihoods do.
+	 */
+	public static final class Design{
+		final double[] theta; //not modified (nor exposed)
+		private final int hash;
+		final double[] likelihoods;
+		private volatile double[] log_likelihoods;
+
+		/**
+		 * @param theta: the probabilities (copied, i.e. later changes to theta do not affect the design)
+		 */
+		public Design(double[] theta){
+			this(theta, true);
+		}
+
+		/*
+		 * The priors create a fresh array for each design, which need not be copied.
+		 */
+		private Design(double[] theta, boolean copy){
+			this.theta = copy? theta.clone() : theta;
+			this.hash = Arrays.hashCode(theta);
+			int n = theta.length;
+			likelihoods = new double[n+1];
+			double prefix = 1;
+			for(int k = 0; k < n; k++){
+				likelihoods[k] = prefix*(1-theta[k]);
+				prefix *= theta[k];
+			}
+			likelihoods[n] = prefix;
+		}
+
+		/**
+		 * @return the log-likelihood of performing k iterations, for k = 0 ... N
+		 */
+		double[] logLikelihoods(){
+			double[] table = log_likelihoods;
+			if(table == null){
+				int n = theta.length;
+				table = new double[n+1];
+				double prefix = 0;
+				for(int k = 0; k < n; k++){
+					table[k] = prefix+Math.log1p(-theta[k]);
+					prefix += Math.log(theta[k]);
+				}
+				table[n] = prefix;
+				log_likelihoods = table;
+			}
+			return table;
+		}
+
+		public double get(int i){
+			return theta[i];
+		}
+
+		public int size(){
+			return theta.length;
+		}
+
+		public int hashCode(){
+			return hash;
+		}
+
+		public boolean equals(Object obj){
+			if(obj instanceof Design){
+				Design odesign = (Design) obj;
+				return hash == odesign.hash && Arrays.equals(theta, odesign.theta);
+			}
+			return false;
+		}
+
+		public String toString(){
+			return Arrays.toString(theta);
+		}
+	}
 
 	public static class ExecutionInfo{
 		final int num_it; //# iterations performed
@@ -21,21 +111,22 @@ public class Looping{
 			this.num_it = num_it;
 			this.sum_r = reward;
 		}
-		
+
 		public static double p(ExecutionInfo exec){
 			return -exec.sum_r;
 		}
-		
+
 		public String toString(){
 			return "Benchmark1.Execution(it:"+num_it+")";
 		}
 	}
 
-	public static ExecutionInfo run(Random rng, List<Double> theta){
+	public static ExecutionInfo run(RandomGenerator rng, Design theta){
+		double[] th = theta.theta;
 		double sum_r = 0;
 		int i = 0;
 		while(i < N){
-			if(rng.nextDouble() < theta.get(i)){
+			if(rng.nextDouble() < th[i]){
 				double reward_i = 1+2*rng.nextGaussian();
 				sum_r += reward_i;
 				i++;
@@ -45,57 +136,92 @@ public class Looping{
 		}
 		return new ExecutionInfo(i,sum_r);
 	}
-	
-	public static double getLikelihood(List<Double> theta, ExecutionInfo exec){
-		double l = 1;
-		for(int i = 0; i < exec.num_it; i++){
-			l *= theta.get(i);
-		}
-		if(exec.num_it == theta.size()){
-			//#it = 20
-			return l;
-		}else{
-			//#it < 20
-			return l*(1-theta.get(exec.num_it));
+
+	/**
+	 * Performs n independent executions of theta (in parallel).
+	 * Executions are performed in chunks of CHUNK, each using its own generator, split off from rng (in order),
+	 * i.e. the result only depends on rng (not on how chunks are scheduled).
+	 */
+	public static List<ExecutionInfo> run(SplittableRandom rng, Design theta, int n){
+		ExecutionInfo[] execs = new ExecutionInfo[n];
+		int n_chunks = (n+CHUNK-1)/CHUNK;
+		SplittableRandom[] rngs = new SplittableRandom[n_chunks];
+		for(int c = 0; c < n_chunks; c++){
+			rngs[c] = rng.split();
 		}
+		IntStream.range(0, n_chunks).parallel().forEach(c -> {
+			for(int i = c*CHUNK; i < Math.min(n, (c+1)*CHUNK); i++){
+				execs[i] = run(rngs[c], theta);
+			}
+		});
+		return Arrays.asList(execs);
 	}
-	
-	public static List<Double> generateInitial(){
-		List<Double> design = new ArrayList<Double>(N);
-		for(int i = 0; i < N; i++){
-			design.add(0.5);
+
+	public static double getLikelihood(Design theta, ExecutionInfo exec){
+		return theta.likelihoods[exec.num_it];
+	}
+
+	/**
+	 * @return the natural logarithm of getLikelihood(theta,exec), without underflow
+	 */
+	public static double getLogLikelihood(Design theta, ExecutionInfo exec){
+		return theta.logLikelihoods()[exec.num_it];
+	}
+
+	/**
+	 * Computes the likelihood of each of the given executions (e.g. E') using theta, i.e. out[i] = getLikelihood(theta,execs.get(i)).
+	 */
+	public static void getLikelihoods(Design theta, List<ExecutionInfo> execs, double[] out){
+		gather(theta.likelihoods, execs, out);
+	}
+
+	/**
+	 * Computes the log-likelihood of each of the given executions (e.g. E') using theta, i.e. out[i] = getLogLikelihood(theta,execs.get(i)).
+	 */
+	public static void getLogLikelihoods(Design theta, List<ExecutionInfo> execs, double[] out){
+		gather(theta.logLikelihoods(), execs, out);
+	}
+
+	private static void gather(double[] table, List<ExecutionInfo> execs, double[] out){
+		for(int i = 0; i < execs.size(); i++){
+			out[i] = table[execs.get(i).num_it];
 		}
-		return design;
 	}
-	
-	public static List<Double> uniformGlobalPriorContinuous(Random rng) {
-		List<Double> design = new ArrayList<Double>(N);
+
+	public static Design generateInitial(){
+		double[] design = new double[N];
+		Arrays.fill(design, 0.5);
+		return new Design(design, false);
+	}
+
+	public static Design uniformGlobalPriorContinuous(Random rng) {
+		double[] design = new double[N];
 		for(int i = 0; i < N; i++){
-			design.add(rng.nextDouble());
+			design[i] = rng.nextDouble();
 		}
-		return design;
+		return new Design(design, false);
 	}
 
-	public static List<Double> uniformLocalPriorContinuous(List<Double> current, Random rng){
-		List<Double> nh = new ArrayList<Double>(current);
+	public static Design uniformLocalPriorContinuous(Design current, Random rng){
+		double[] nh = current.theta.clone();
 		int mutation_index = rng.nextInt(N);
-		nh.set(mutation_index, rng.nextDouble());
-		return nh;
+		nh[mutation_index] = rng.nextDouble();
+		return new Design(nh, false);
 	}
-	
-	public static List<Double> uniformGlobalPriorDiscrete(Random rng) {
-		List<Double> design = new ArrayList<Double>(N);
+
+	public static Design uniformGlobalPriorDiscrete(Random rng) {
+		double[] design = new double[N];
 		for(int i = 0; i < N; i++){
-			design.add(0.1*rng.nextInt(11));
+			design[i] = 0.1*rng.nextInt(11);
 		}
-		return design;
+		return new Design(design, false);
 	}
 
-	public static List<Double> uniformLocalPriorDiscrete(List<Double> current, Random rng){
-		List<Double> nh = new ArrayList<Double>(current);
+	public static Design uniformLocalPriorDiscrete(Design current, Random rng){
+		double[] nh = current.theta.clone();
 		int mutation_index = rng.nextInt(N);
-		nh.set(mutation_index, 0.1*rng.nextInt(11));
-		return nh;
+		nh[mutation_index] = 0.1*rng.nextInt(11);
+		return new Design(nh, false);
 	}
 
 }
@@ -0,0 +1,104 @@
+package is4ape.bench.scheduler_hh;
+
+import java.util.Random;
+
+import is4ape.bench.scheduler_hh.SchedulerHH.Input;
+
+/**
+ * A simple benchmark comparing the feature extraction of Input (extract_inputs)
+ * to its reference implementation (extract_inputs_reference), on randomly sampled training inputs.
+ * It also times the batched, memoized extraction used by the likelihood DP (computing the features in the first repetition,
+ * looking them up in the others), and verifies that all produce the same features.
+ * 
+ * @author Steven Adriaensen
+ *
+ */
+public class FeatureBenchmark {
+
+	/**
+	 * @param args: OPTIONAL, in order:
+	 *     args[0]: the number of inputs (default 20)
+	 *     args[1]: the number of repetitions per input (default 10)
+	 */
+	public static void main(String[] args) {
+		int n_inputs = args.length > 0? Integer.parseInt(args[0]) : 20;
+		int reps = args.length > 1? Integer.parseInt(args[1]) : 10;
+		Random rng = new Random(0);
+		Input[] inputs = new Input[n_inputs];
+		for(int i = 0; i < n_inputs; i++){
+			inputs[i] = SchedulerHH.sample_D_training(rng);
+		}
+		
+		int size = ((SchedulerHH.nSlots+1) * SchedulerHH.nSlots)/2;
+		double[] f1 = new double[5*size];
+		double[] f2 = new double[5*size];
+		int[] states = new int[SchedulerHH.nSlots];
+		for(int j = 0; j < states.length; j++){
+			states[j] = j;
+		}
+		double[] r1 = new double[5*SchedulerHH.nSlots];
+		double[] r2 = new double[5*SchedulerHH.nSlots];
+		for(int r = 0; r < reps; r++){
+			long t_ref = 0;
+			long t_new = 0;
+			long t_memo = 0;
+			int mismatches = 0;
+			for(Input x : inputs){
+				long start = System.nanoTime();
+				double[][][] ref = reference(x);
+				t_ref += System.nanoTime()-start;
+				start = System.nanoTime();
+				int v = 0;
+				for(int i = 0; i < SchedulerHH.nSlots; i++){
+					for(int j = 0; j <= i; j++){
+						x.extract_inputs(j,i-j,f1,f2,v,size);
+						v++;
+					}
+				}
+				t_new += System.nanoTime()-start;
+				for(v = 0; v < size; v++){
+					for(int k = 0; k < 5; k++){
+						if(ref[0][v][k] != f1[k*size+v] || ref[1][v][k] != f2[k*size+v]){
+							mismatches++;
+						}
+					}
+				}
+				v = 0;
+				for(int i = 0; i < SchedulerHH.nSlots; i++){
+					start = System.nanoTime();
+					x.extract_inputs(i,states,i+1,r1,r2,0,i+1);
+					t_memo += System.nanoTime()-start;
+					for(int j = 0; j <= i; j++){
+						for(int k = 0; k < 5; k++){
+							if(ref[0][v][k] != r1[k*(i+1)+j] || ref[1][v][k] != r2[k*(i+1)+j]){
+								mismatches++;
+							}
+						}
+						v++;
+					}
+				}
+			}
+			System.out.println("<repetition "+(r+1)+">");
+			System.out.println("reference: "+t_ref/1000000+"ms");
+			System.out.println("new: "+t_new/1000000+"ms");
+			System.out.println("memoized: "+t_memo/1000000+"ms");
+			System.out.println("mismatches: "+mismatches);
+		}
+	}
+	
+	static double[][][] reference(Input x){
+		int size = ((SchedulerHH.nSlots+1) * SchedulerHH.nSlots)/2;
+		double[][][] f = new double[2][size][];
+		int v = 0;
+		for(int i = 0; i < SchedulerHH.nSlots; i++){
+			for(int j = 0; j <= i; j++){
+				double[][] inputs = x.extract_inputs_reference(j,i-j);
+				f[0][v] = inputs[0];
+				f[1][v] = inputs[1];
+				v++;
+			}
+		}
+		return f;
+	}
+
+}
@@ -0,0 +1,173 @@
+package is4ape.bench.scheduler_hh;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import is4ape.bench.data.DataSource;
+import is4ape.bench.scheduler_hh.SchedulerHH.HH;
+import is4ape.bench.scheduler_hh.SchedulerHH.Trace;
+
+/**
+ * Provides access to the scheduler data (HH_data), i.e. the input seeds and the heuristic traces.
+ *
+ * The data is read from the HH_data directory, or directly from hh_data.zip if it was not extracted (see DataSource).
+ * The dataset is loaded lazily, on first use (see get), rather than when SchedulerHH is loaded.
+ * Its parts, i.e. the seed table, an index of the trace files and the binary trace store (if any, see TraceStore),
+ * are loaded in parallel. Traces are then looked up in the index, rather than opened by path.
+ * As traces are read on demand, the data source remains open (for the lifetime of the dataset), unless the binary store
+ * contains all traces, in which case it is closed once loaded (archives cached in memory, see -Ddata.cache, are closed when cached).
+ * The time it took to load each part is recorded, see toString.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+class HHDataset {
+	static final int N_INSTANCES = 98;
+	static final int N_SEEDS = 32;
+	static final String ARCHIVE = "hh_data.zip";
+
+	final File folder;
+	final DataSource data;
+	final long[][] seeds; //seeds[x][i] is the i-th seed for instance x
+	final Map<TraceStore.Key,String> files; //index of all trace files (names) in data
+	final TraceStore store; //binary trace store (null if none)
+
+	//metrics (in ms)
+	long open_time;
+	long seeds_time;
+	long index_time;
+	long store_time;
+	long load_time; //wall-clock time to load all parts (in parallel)
+
+	private static class Holder{
+		static final HHDataset INSTANCE = new HHDataset(new File(SchedulerHH.folder));
+	}
+
+	/**
+	 * Returns the dataset, loading it on first use.
+	 */
+	static HHDataset get(){
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * @return true iff the data folder exists and is not empty, or the archive exists (without loading the dataset).
+	 */
+	static boolean available(File folder){
+		return DataSource.available(folder.getPath(), ARCHIVE);
+	}
+
+	HHDataset(File folder){
+		this.folder = folder;
+		long start = System.currentTimeMillis();
+		try{
+			data = DataSource.find(folder.getPath(), ARCHIVE);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		if(data == null){
+			throw new IllegalStateException("hh data not found: "+folder+" or "+ARCHIVE);
+		}
+		open_time = System.currentTimeMillis()-start;
+		CompletableFuture<long[][]> seeds = CompletableFuture.supplyAsync(this::readSeeds);
+		CompletableFuture<Map<TraceStore.Key,String>> files = CompletableFuture.supplyAsync(this::index);
+		CompletableFuture<TraceStore> store = CompletableFuture.supplyAsync(this::openStore);
+		this.seeds = seeds.join();
+		this.files = files.join();
+		this.store = store.join();
+		if(this.store != null && this.store.offsets.keySet().containsAll(this.files.keySet())){
+			//all traces are read from the store
+			try{
+				data.close();
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		}
+		load_time = System.currentTimeMillis()-start;
+	}
+
+	private long[][] readSeeds(){
+		long start = System.currentTimeMillis();
+		long[][] seeds = new long[N_INSTANCES][N_SEEDS];
+		try (BufferedReader br = data.reader("input_seeds.csv")) {
+		    String line;
+		    while ((line = br.readLine()) != null) {
+		    	String[] tokens = line.split(",");
+		    	int x = Integer.parseInt(tokens[0]);
+		    	for(int i = 0; i < N_SEEDS; i++){
+		    		seeds[x][i] = Long.parseLong(tokens[1+i]);
+		    	}
+		    }
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		seeds_time = System.currentTimeMillis()-start;
+		return seeds;
+	}
+
+	private Map<TraceStore.Key,String> index(){
+		long start = System.currentTimeMillis();
+		Map<TraceStore.Key,String> files = new HashMap<TraceStore.Key,String>();
+		for(String name : data.names()){
+			TraceStore.Key key = TraceStore.Key.parse(name);
+			if(key != null){
+				files.put(key, name);
+			}
+		}
+		index_time = System.currentTimeMillis()-start;
+		return Collections.unmodifiableMap(files);
+	}
+
+	private TraceStore openStore(){
+		long start = System.currentTimeMillis();
+		File file = new File(folder.getPath()+".bin");
+		TraceStore store = null;
+		if(file.exists()){
+			try{
+				store = new TraceStore(file);
+			}catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+		store_time = System.currentTimeMillis()-start;
+		return store;
+	}
+
+	long seed(int x, int i){
+		return seeds[x][i];
+	}
+
+	/**
+	 * Returns the trace of heuristic hh on instance x, with a given seed.
+	 * The trace is read from the binary store if it contains it, otherwise it is parsed from its trace file.
+	 */
+	Trace trace(int x, long seed, HH hh) throws IOException{
+		if(store != null){
+			Trace t = store.get(x,seed,hh);
+			if(t != null){
+				return t;
+			}
+		}
+		String name = files.get(new TraceStore.Key(x,seed,hh));
+		if(name == null){
+			throw new FileNotFoundException(x+"_"+seed+"_"+hh+" (not in "+data+")");
+		}
+		try(BufferedReader br = data.reader(name)){
+			return Trace.fromReader(br);
+		}
+	}
+
+	public String toString(){
+		return "HHDataset("+data+" opened in "+open_time+"ms, seeds: "+seeds_time+"ms, index: "+files.size()+" files in "+index_time+"ms"
+				+", store: "+(store == null? "none" : store.offsets.size()+" traces")+" in "+store_time+"ms"
+				+", total: "+load_time+"ms)";
+	}
+
+}
@@ -0,0 +1,266 @@
+package is4ape.bench.scheduler_hh;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import is4ape.bench.scheduler_hh.SchedulerHH.HH;
+import is4ape.bench.scheduler_hh.SchedulerHH.Input;
+
+/**
+ * Interns scheduler inputs, shared by all threads.
+ *
+ * Loading an input (reading its traces and computing its features) is expensive and its memory footprint is large.
+ * Inputs are therefore shared between all executions on them, i.e. repeated draws of the same input return the same instance,
+ * such that the memory used by E' scales with the number of distinct inputs, rather than the number of executions.
+ * Executions hold (strong) references to their input. The cache itself only holds weak references,
+ * such that inputs no longer referenced (e.g. by E') can be collected, except for the most recently used ones
+ * (at most a given capacity, see -Dhh.input_cache), which are held strongly.
+ *
+ * Inputs are typically requested in recurring sequences. The cache therefore remembers which input was requested after each input,
+ * and prefetches it on a background thread. A prefetched input is held as a recently used one, i.e. it counts against the capacity,
+ * such that mispredicted prefetches are evicted (in LRU order) like any other input. Without capacity (-Dhh.input_cache=0), nothing is prefetched.
+ * An input that is being loaded (e.g. prefetched) is never loaded twice.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+class InputCache {
+	final int capacity; //# recently used inputs held strongly
+	final Map<Key,Entry> entries; //all inputs loaded (and not collected), or being loaded
+	final Map<Key,Input> recent; //recently used inputs (LRU)
+	final Map<Key,Key> successors; //the key requested after each key (last time)
+	final ReferenceQueue<Input> collected;
+	Key last; //the last key requested
+	private ExecutorService prefetcher; //created on first use
+
+	//statistics
+	long hits;
+	long misses;
+	long prefetches; //# inputs prefetched
+	long prefetch_hits; //# requests for a prefetched input
+	long loads; //# inputs loaded
+	long load_time; //total time spent loading inputs (in ns)
+
+	/*
+	 * An input, which is either being loaded (loading != null), or was loaded (input != null).
+	 */
+	private static class Entry{
+		CompletableFuture<Input> loading = new CompletableFuture<Input>();
+		Ref input;
+		boolean prefetch; //prefetched, and not requested yet
+	}
+
+	private static class Ref extends WeakReference<Input>{
+		final Key key;
+
+		Ref(Key key, Input input, ReferenceQueue<Input> queue){
+			super(input, queue);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Uniquely identifies an input.
+	 */
+	static class Key{
+		final int x;
+		final long seed;
+		final HH hh1;
+		final HH hh2;
+
+		Key(int x, long seed, HH hh1, HH hh2){
+			this.x = x;
+			this.seed = seed;
+			this.hh1 = hh1;
+			this.hh2 = hh2;
+		}
+
+		public int hashCode(){
+			int hash = 23;
+			hash = hash * 31 + x;
+			hash = hash * 31 + Long.hashCode(seed);
+			hash = hash * 31 + hh1.hashCode();
+			hash = hash * 31 + hh2.hashCode();
+			return hash;
+		}
+
+		public boolean equals(Object obj){
+			if(obj instanceof Key){
+				Key okey = (Key) obj;
+				return x == okey.x && seed == okey.seed && hh1 == okey.hh1 && hh2 == okey.hh2;
+			}
+			return false;
+		}
+
+		public String toString(){
+			return x+"_"+seed+"_"+hh1+"_"+hh2;
+		}
+	}
+
+	/**
+	 * @param capacity: the number of recently used inputs held strongly
+	 */
+	InputCache(int capacity){
+		this.capacity = capacity;
+		entries = new HashMap<Key,Entry>();
+		collected = new ReferenceQueue<Input>();
+		recent = new LinkedHashMap<Key,Input>(16,0.75f,true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,Input> eldest){
+				return size() > InputCache.this.capacity;
+			}
+		};
+		successors = new LinkedHashMap<Key,Key>(16,0.75f,true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,Key> eldest){
+				return size() > 64*Math.max(1, InputCache.this.capacity);
+			}
+		};
+	}
+
+	/*
+	 * Removes the entries of collected inputs.
+	 */
+	private void purge(){
+		Reference<? extends Input> ref;
+		while((ref = collected.poll()) != null){
+			Key key = ((Ref) ref).key;
+			Entry entry = entries.get(key);
+			if(entry != null && entry.input == ref){
+				entries.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the input for a given key, loading it if it is not in use (or recently used) already.
+	 * Loading happens outside of the lock, such that other threads are not blocked meanwhile.
+	 */
+	Input get(Key key){
+		Entry entry;
+		Input input = null;
+		CompletableFuture<Input> loading = null;
+		boolean load = false;
+		Key next;
+		synchronized(this){
+			purge();
+			entry = entries.get(key);
+			if(entry != null){
+				input = entry.input == null? null : entry.input.get();
+				loading = entry.loading;
+				if(input == null && loading == null){
+					entry = null; //collected (but not purged yet)
+				}
+			}
+			if(entry != null){
+				hits++;
+				if(entry.prefetch){
+					prefetch_hits++;
+					entry.prefetch = false;
+				}
+			}else{
+				misses++;
+				entry = new Entry();
+				entries.put(key, entry);
+				loading = entry.loading;
+				load = true;
+			}
+			if(input != null){
+				recent.put(key, input);
+			}
+			if(last != null && !last.equals(key)){
+				successors.put(last, key);
+			}
+			last = key;
+			next = successors.get(key);
+		}
+		if(next != null && capacity > 0){
+			prefetch(next);
+		}
+		if(load){
+			load(key, entry);
+		}
+		if(input == null){
+			try{
+				input = loading.join();
+			}catch(CompletionException e){
+				throw e.getCause() instanceof RuntimeException? (RuntimeException) e.getCause() : e;
+			}
+			synchronized(this){
+				recent.put(key, input);
+			}
+		}
+		return input;
+	}
+
+	/**
+	 * Loads the input for a given key on a background thread, unless it is in use (or being loaded) already.
+	 */
+	void prefetch(Key key){
+		Entry entry;
+		synchronized(this){
+			entry = entries.get(key);
+			if(entry != null && (entry.loading != null || entry.input.get() != null)){
+				return;
+			}
+			entry = new Entry();
+			entry.prefetch = true;
+			entries.put(key, entry);
+			prefetches++;
+			if(prefetcher == null){
+				prefetcher = Executors.newSingleThreadExecutor(r -> {
+					Thread t = new Thread(r, "InputCache-prefetcher");
+					t.setDaemon(true);
+					return t;
+				});
+			}
+			Entry prefetched = entry;
+			prefetcher.execute(() -> load(key, prefetched));
+		}
+	}
+
+	private void load(Key key, Entry entry){
+		long start = System.nanoTime();
+		Input input;
+		try{
+			input = new Input(key);
+		}catch(RuntimeException e){
+			synchronized(this){
+				entries.remove(key, entry);
+			}
+			entry.loading.completeExceptionally(e);
+			return;
+		}
+		CompletableFuture<Input> loading;
+		synchronized(this){
+			entry.input = new Ref(key, input, collected);
+			if(entry.prefetch){
+				recent.put(key, input); //held (strongly) until evicted
+			}
+			loading = entry.loading;
+			entry.loading = null;
+			loads++;
+			load_time += System.nanoTime()-start;
+		}
+		loading.complete(input);
+	}
+
+	synchronized public String toString(){
+		purge();
+		return "InputCache(size: "+entries.size()+" ("+recent.size()+"/"+capacity+" recent), hits: "+hits+", misses: "+misses
+				+", prefetches: "+prefetches+" ("+prefetch_hits+" used), loads: "+loads+" in "+load_time/1000000+"ms)";
+	}
+
+}
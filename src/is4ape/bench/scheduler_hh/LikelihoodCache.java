@@ -0,0 +1,131 @@
+package is4ape.bench.scheduler_hh;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import is4ape.bench.scheduler_hh.SchedulerHH.Input;
+import is4ape.bench.scheduler_hh.SchedulerHH.Policy;
+
+/**
+ * A bounded (least recently used) cache of likelihood distributions, for a single run (see SchedulerHH.newLikelihoodCache),
+ * shared by all threads.
+ *
+ * For a given policy and input, a single DP (see SchedulerHH.computeLikelihoods) yields the likelihood of every possible outcome.
+ * Caching these distributions, the likelihood of any execution on the same input is obtained by lookup,
+ * i.e. only a single DP is required per (policy, distinct input), rather than per (policy, execution).
+ *
+ * The capacity is either fixed (e.g. -Dhh.likelihood_cache=100000), or grows with the executions performed (see executed),
+ * i.e. (|Theta'|+SLACK)*|distinct inputs in E'|, such that the rows of all designs used (e.g. the incumbent),
+ * and those of the designs currently being estimated, are not evicted by one another.
+ * A growing capacity is bounded by a memory budget (e.g. -Dhh.likelihood_cache_mb=256), each row taking about 8*(nSlots+1)+ROW_OVERHEAD bytes.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class LikelihoodCache {
+	static final int MIN_CAPACITY = 4096;
+	static final int SLACK = 16; //# designs, other than those used, whose rows are to be cached (e.g. proposals)
+	static final int ROW_OVERHEAD = 96; //bytes per row, other than its likelihoods (array header, key and map entry)
+	
+	final int capacity; //0: grows with the executions performed
+	final int max_capacity; //the # rows fitting the memory budget
+	final Map<Key,double[]> cache;
+	//the policies used, and the inputs they were executed on
+	final Set<Policy> used = Collections.newSetFromMap(new IdentityHashMap<Policy,Boolean>());
+	final Set<InputCache.Key> inputs = new HashSet<InputCache.Key>();
+
+	//statistics
+	long hits;
+	long misses;
+
+	static class Key{
+		final Policy pi; //compared by identity
+		final InputCache.Key x;
+
+		Key(Policy pi, InputCache.Key x){
+			this.pi = pi;
+			this.x = x;
+		}
+
+		public int hashCode(){
+			int hash = 23;
+			hash = hash * 31 + System.identityHashCode(pi);
+			hash = hash * 31 + x.hashCode();
+			return hash;
+		}
+
+		public boolean equals(Object obj){
+			if(obj instanceof Key){
+				Key okey = (Key) obj;
+				return pi == okey.pi && x.equals(okey.x);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @param capacity: the (fixed) number of rows cached (0: grows with the executions performed)
+	 * @param budget: the memory (in bytes) the rows may take, if the capacity grows
+	 */
+	LikelihoodCache(int capacity, long budget){
+		this.capacity = capacity;
+		this.max_capacity = (int) Math.min(Integer.MAX_VALUE, budget/(8L*(SchedulerHH.nSlots+1)+ROW_OVERHEAD));
+		cache = new LinkedHashMap<Key,double[]>(16,0.75f,true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,double[]> eldest){
+				return size() > capacity();
+			}
+		};
+	}
+
+	/**
+	 * @return the current capacity
+	 */
+	synchronized int capacity(){
+		if(capacity > 0){
+			return capacity;
+		}
+		return (int) Math.min(max_capacity, Math.max(MIN_CAPACITY, (long)(used.size()+SLACK)*inputs.size()));
+	}
+	
+	/**
+	 * Registers an execution of pi on x (see SchedulerHH.run).
+	 */
+	synchronized void executed(Policy pi, Input x){
+		used.add(pi);
+		inputs.add(x.key);
+	}
+
+	/**
+	 * Returns the likelihood of each possible outcome (nSlots1) of executing pi on input x.
+	 * The DP is computed outside of the lock, such that other threads are not blocked meanwhile.
+	 */
+	double[] get(Policy pi, Input x){
+		Key key = new Key(pi,x.key);
+		double[] likelihoods;
+		synchronized(this){
+			likelihoods = cache.get(key);
+			if(likelihoods != null){
+				hits++;
+				return likelihoods;
+			}
+			misses++;
+		}
+		likelihoods = SchedulerHH.computeLikelihoods(pi, x);
+		synchronized(this){
+			cache.put(key, likelihoods);
+		}
+		return likelihoods;
+	}
+
+	synchronized public String toString(){
+		return "LikelihoodCache(size: "+cache.size()+"/"+capacity()+", hits: "+hits+", misses: "+misses+")";
+	}
+
+}
@@ -2,95 +2,93 @@ package is4ape.bench.scheduler_hh;
 
 /**
  * Fully connected multilayer perceptron with sigmoid activation
- * 
+ *
+ * Weights are stored in a single flat array: for each layer, for each unit, its bias followed by its input weights.
+ * The forward pass is batched: it processes many inputs at once, stored column-major (i.e. feature by feature),
+ * such that the inner loops run over contiguous arrays. The MLP holds no state other than its weights,
+ * i.e. it can be used by multiple threads concurrently.
+ *
  * @author Steven Adriaensen
  *
  */
 class MLP{
-	static class Neuron{
-		double[] weights;
-		
-		Neuron(double... weights){
-			this.weights = weights;
-		}
-		
-		double activate(double... inputs){
-			double f = weights[0];
-			for(int i = 0; i <inputs.length; i++){
-				f += weights[i+1]*inputs[i];
-			}
-			return 1/(1+Math.exp(-f));
-		}
-	}
-	
-	Neuron[][] hidden_units;
-	Neuron[] output_unit;
-	
-	//workspace
-	double[] activations;
-	double[] new_activations;
-	double[] output;
-	
+	final int x; //# inputs
+	final int y; //# outputs
+	final int n; //# hidden layers
+	final int m; //# units per hidden layer
+	final double[] weights;
+
 	MLP(int x, int y, int n, int m, double... weights){
 		int n_weights = (x+1)*m+(n-1)*m*(m+1)+y*(m+1);
 		if(weights.length != n_weights){
 			System.err.println("Wrong number of weights, expected "+n_weights+" got "+weights.length);
 		}
-		
-		hidden_units = new Neuron[n][m];
-		//multi-layer perceptron with n hidden layers
-		//first hidden layer:
+		this.x = x;
+		this.y = y;
+		this.n = n;
+		this.m = m;
+		this.weights = weights.clone();
+	}
+
+	/**
+	 * Computes the outputs of the MLP for a batch of inputs.
+	 *
+	 * @param inputs: the inputs, column-major, i.e. the i-th feature of row r is inputs[i*rows+r]
+	 * @param rows: the number of inputs in the batch
+	 * @param outputs: the array to write the outputs to, column-major, i.e. the j-th output of row r is outputs[j*rows+r]
+	 */
+	void predict(double[] inputs, int rows, double[] outputs){
+		predict(inputs,rows,outputs,new double[m*rows],n > 1? new double[m*rows] : null);
+	}
+
+	/**
+	 * Same as predict(inputs,rows,outputs), but using the given arrays (of size >= m*rows) to store the activations of the hidden layers,
+	 * i.e. without allocating any memory. new_activations is only used if n > 1.
+	 */
+	void predict(double[] inputs, int rows, double[] outputs, double[] activations, double[] new_activations){
+		//compute activations for the first hidden layer
 		int off = 0;
 		for(int j = 0; j < m; j++){
-			double[] ws = new double[x+1];
-			for(int k = 0; k < x+1; k++){
-				ws[k] = weights[off+k];
-			}
-			hidden_units[0][j] = new Neuron(ws);
+			layer(inputs,x,rows,off,activations,j);
 			off += x+1;
 		}
-		//n-1 remaining hidden layers
+		//feed forward activations
 		for(int i = 1; i < n; i++){
 			for(int j = 0; j < m; j++){
-				double[] ws = new double[m+1];
-				for(int k = 0; k < m+1; k++){
-					ws[k] = weights[off+k];
-				}
-				hidden_units[i][j] = new Neuron(ws);
+				layer(activations,m,rows,off,new_activations,j);
 				off += m+1;
 			}
+			double[] temp = activations;
+			activations = new_activations;
+			new_activations = temp;
 		}
-		//output layer
-		output_unit = new Neuron[y];
-		for(int i = 0; i < y; i++){
-			double[] ws = new double[m+1];
-			for(int k = 0; k < m+1; k++){
-				ws[k] = weights[off+k];
-			}
-			output_unit[i] = new Neuron(ws);
+		//compute outputs
+		for(int j = 0; j < y; j++){
+			layer(activations,m,rows,off,outputs,j);
 			off += m+1;
-		}	
-		activations = new double[m];
-		new_activations = new double[m];
-		output = new double[y];
+		}
 	}
-	
-	void predict(double[] inputs){
-		//compute activations for the first hidden layer
-		for(int j = 0; j < hidden_units[0].length; j++){
-			activations[j] = hidden_units[0][j].activate(inputs);
+
+	/*
+	 * Computes the activations of a single unit (whose weights start at off) for a batch of inputs,
+	 * writing them in column j of out.
+	 */
+	private void layer(double[] in, int n_in, int rows, int off, double[] out, int j){
+		int o = j*rows;
+		double bias = weights[off];
+		for(int r = 0; r < rows; r++){
+			out[o+r] = bias;
 		}
-		//feed forward activations
-		for(int i = 1; i < hidden_units.length; i++){
-			for(int j = 0; j < hidden_units[0].length; j++){
-				new_activations[j] = hidden_units[i][j].activate(activations);
+		for(int k = 0; k < n_in; k++){
+			double w = weights[off+1+k];
+			int i = k*rows;
+			for(int r = 0; r < rows; r++){
+				out[o+r] += w*in[i+r];
 			}
-			activations = new_activations;
 		}
-		//compute outputs
-		for(int j = 0; j < output.length; j++){
-			output[j] = output_unit[j].activate(activations);
+		for(int r = 0; r < rows; r++){
+			out[o+r] = 1/(1+Math.exp(-out[o+r]));
 		}
 	}
-	
+
 }
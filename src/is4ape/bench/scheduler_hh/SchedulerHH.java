@@ -1,11 +1,14 @@
 package is4ape.bench.scheduler_hh;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -16,10 +19,27 @@ import java.util.Random;
  */
 public class SchedulerHH {
 	final static long budget = 600000;
-	final static int nSlots = 100;
+	//the number of slots can be configured (e.g. -Dhh.slots=1000), the default (100) is the setting used in our experiments
+	final static int nSlots = slots();
 	final static long time_per_slot = budget/nSlots;
+	//states whose likelihood is below this threshold are pruned from the likelihood DP (e.g. -Dhh.prune=1e-12)
+	final static double prune_tol = Double.parseDouble(System.getProperty("hh.prune", "0"));
 	
-	public static ExecutionInfo run(Input x, Configuration c){
+	/*
+	 * @return the number of slots (-Dhh.slots), which must divide the budget, such that all slots are equally long
+	 */
+	private static int slots(){
+		int n = Integer.getInteger("hh.slots", 100);
+		if(n <= 0 || budget % n != 0){
+			throw new IllegalArgumentException("hh.slots must be a positive divisor of the budget ("+budget+"), got "+n);
+		}
+		return n;
+	}
+	
+	/**
+	 * Executes c on x, registering the execution with the (per run) likelihood cache.
+	 */
+	public static ExecutionInfo run(LikelihoodCache likelihoods, Input x, Configuration c){
 		Policy pi = c.pi;
 		Random rng = new Random();
 		ExecutionInfo e = new ExecutionInfo();
@@ -41,7 +61,8 @@ public class SchedulerHH {
 				System.err.println("Invalid choice policy: "+sel);
 			}
 		}
-		e.r = e.x.getDesirability(e.nSlots1, e.nSlots2);
+		e.r = x.getDesirability(e.nSlots1, e.nSlots2);
+		likelihoods.executed(pi, x);
 		return e;
 	}
 	
@@ -49,60 +70,72 @@ public class SchedulerHH {
 		return inputForID(rng.nextInt(2744),rng);
 	}
 	
-	final static double[] workspace = new double[((nSlots+1)*(nSlots+2))/2];
-	
-	public static double getLikelihood(Configuration c, ExecutionInfo e){
-		return getLikelihood(c.toPolicy(),e);
+	public static double getLikelihood(LikelihoodCache likelihoods, Configuration c, ExecutionInfo e){
+		return getLikelihood(likelihoods,c.toPolicy(),e);
 	}
 	
-	public static double getLikelihood(Policy pi, ExecutionInfo e){
-		computeLikelihoods(pi,e.x,e.nSlots1,e.nSlots2);
-		int v = ((nSlots)*(nSlots+1))/2+e.nSlots1;
-		return workspace[v];
+	public static double getLikelihood(LikelihoodCache likelihoods, Policy pi, ExecutionInfo e){
+		return likelihoods.get(pi,e.x)[e.nSlots1];
 	}
 
-	public static void computeLikelihoods(Policy pi, Input x, int nMax1, int nMax2){
-		//clear workspace
-		int offset = ((nSlots+1)*(nSlots))/2;
-		for(int i = 0; i <= nSlots; i++){
-			workspace[offset+i] = 0;
-		}
-		//key = nSlots1*nSlots + nSlots2;
-		//start with (0,0)-1 in the list
-		workspace[0] = 1;
+	/*
+	 * Computes the likelihood of each possible outcome (nSlots1) of executing policy pi on input x.
+	 * The DP proceeds slot by slot, only keeping the likelihoods of the states (nSlots1,i-nSlots1) after i slots,
+	 * i.e. it requires O(nSlots) memory. Only states that are reachable (with likelihood > prune_tol) are expanded,
+	 * such that the DP is restricted to the band of states the policy can actually visit.
+	 * Likelihoods are exact if prune_tol = 0, otherwise they underestimate the exact ones by at most nSlots^2*prune_tol.
+	 * If prune_tol = 0, prNext1 is computed for all states at once (i.e. in a single batched forward pass per input),
+	 * otherwise for the reachable states after each slot (i.e. a batched forward pass per slot).
+	 */
+	public static double[] computeLikelihoods(Policy pi, Input x){
+		double[] current = new double[nSlots+1];
+		double[] next = new double[nSlots+1];
+		int[] reached = new int[nSlots];
+		double[] pr1s = new double[nSlots];
+		double[] table = prune_tol == 0? pi.prNext1(x) : null; //indexed by i*(i+1)/2+nSlots1
+		Policy.Buffers buf = table == null? pi.buffers(nSlots) : null;
+		//start in state (0,0) with likelihood 1
+		current[0] = 1;
+		int lo = 0; //the band of states (nSlots1) with non-zero likelihood
+		int hi = 0;
 		//for each slot:
-		int v = 0;
 		for(int i = 0; i < nSlots; i++){
-			for(int j = 0; j <= i; j++){
-				if(workspace[v] > 0){
-					int nSlots1 = j;
-					int nSlots2 = i-j;
-					
-					//sum should be i
-					//(j,i-j)
-					double pr1 = pi.prNext1(x,nSlots1, nSlots2);
-					
-					//extend s1;
-					//-> (i+1)*(i+2)/2 + nSlot1 + 1
-					if(nSlots1 < nMax1){
-						int v1 = (i+1)*(i+2)/2 + nSlots1 +1;
-						workspace[v1] += pr1*workspace[v];
-					}
-					//extend s2;
-					//-> (i+1)*(i+2)/2 + nSlot1 + 0
-					if(nSlots2 < nMax2){
-						int v2 = (i+1)*(i+2)/2 + nSlots1;
-						workspace[v2] += (1-pr1)*workspace[v];
-					}
-					workspace[v] = 0;
+			//likelihood of selecting the first heuristic, in each reachable state (batched)
+			int n_reached = 0;
+			for(int j = lo; j <= hi; j++){
+				if(current[j] > prune_tol){
+					reached[n_reached++] = j;
 				}
-				v++;
+			}
+			if(table == null){
+				pi.prNext1(x,i,reached,n_reached,pr1s,buf);
+			}
+			int offset = (i*(i+1))/2;
+			for(int k = 0; k < n_reached; k++){
+				int nSlots1 = reached[k];
+				double pr1 = table == null? pr1s[k] : table[offset+nSlots1];
+				//extend s1: (nSlots1+1,i-nSlots1)
+				next[nSlots1+1] += pr1*current[nSlots1];
+				//extend s2: (nSlots1,i+1-nSlots1)
+				next[nSlots1] += (1-pr1)*current[nSlots1];
+			}
+			Arrays.fill(current, lo, hi+1, 0);
+			double[] temp = current;
+			current = next;
+			next = temp;
+			if(n_reached > 0){
+				lo = reached[0];
+				hi = reached[n_reached-1]+1;
+			}else{
+				//all states were pruned
+				break;
 			}
 		}
+		return current;
 	}
 	
 	public static class ExecutionInfo{
-		Input x;
+		Input x; //the input is shared by all executions on it (see InputCache)
 		int nSlots1;
 		int nSlots2;
 		double r;
@@ -158,19 +191,111 @@ public class SchedulerHH {
 		static double T = 0; //extreme: 0.5
 		MLP nn;
 		
+		//the buffers of each thread, reused between forward passes (and policies)
+		private static final ThreadLocal<Buffers> local = new ThreadLocal<Buffers>();
+		
+		/*
+		 * The buffers for a batched forward pass of (at most) rows states, reused between passes.
+		 */
+		static class Buffers{
+			final double[] in1;
+			final double[] in2;
+			final double[] pr1s;
+			final double[] pr2s;
+			final double[] activations;
+			final double[] new_activations;
+			
+			Buffers(MLP nn, int rows){
+				in1 = new double[5*rows];
+				in2 = new double[5*rows];
+				pr1s = new double[rows];
+				pr2s = new double[rows];
+				activations = new double[nn.m*rows];
+				new_activations = nn.n > 1? new double[nn.m*rows] : null;
+			}
+			
+			/*
+			 * @return true iff these buffers can be used for a forward pass of nn on (at most) rows states
+			 */
+			boolean fits(MLP nn, int rows){
+				return pr1s.length >= rows && activations.length >= nn.m*rows
+						&& (nn.n == 1 || (new_activations != null && new_activations.length >= nn.m*rows));
+			}
+		}
+		
 		Policy(int n, int m, double... weights){
 			nn = new MLP(5,1,n,m,weights);
 		}
+		
+		/*
+		 * @return the buffers of the calling thread, for a batched forward pass of (at most) rows states,
+		 *     i.e. parallel computations (e.g. DPs) on the same policy do not contend for a lock.
+		 *     These are only valid until the next call on the same thread.
+		 */
+		Buffers buffers(int rows){
+			Buffers buf = local.get();
+			if(buf == null || !buf.fits(nn,rows)){
+				buf = new Buffers(nn,Math.max(rows, buf == null? 0 : buf.pr1s.length));
+				local.set(buf);
+			}
+			return buf;
+		}
 
+		/*
+		 * Computes prNext1 for a single state (e.g. in run), using the buffers of the calling thread.
+		 * The NN inputs are computed from scratch, i.e. the states visited by single executions are not memoized.
+		 */
 		double prNext1(Input x, int nSlots1, int nSlots2) {
-			int slots = nSlots1 + nSlots2;
-			int offset = (slots*(slots+1))/2;
-			int v = offset + nSlots1;
-
-			nn.predict(x.f1[v]);
-			double pr1 = nn.output[0];
-			nn.predict(x.f2[v]);
-			double pr2 = nn.output[0];
+			Buffers buf = buffers(1);
+			x.extract_inputs(nSlots1,nSlots2,buf.in1,buf.in2,0,1);
+			prNext1(1,buf.pr1s,buf);
+			return buf.pr1s[0];
+		}
+		
+		/*
+		 * Computes prNext1 for all states (nSlots1,nSlots2) at once, i.e. using a single batched forward pass (of nSlots*(nSlots+1)/2 rows).
+		 * The result is indexed by v = (nSlots1+nSlots2)*(nSlots1+nSlots2+1)/2 + nSlots1.
+		 * The NN inputs are looked up (see Input.extract_inputs), i.e. all states of x are memoized.
+		 */
+		double[] prNext1(Input x){
+			int rows = ((nSlots+1)*nSlots)/2;
+			Buffers buf = buffers(rows);
+			int[] states = new int[nSlots];
+			for(int j = 0; j < nSlots; j++){
+				states[j] = j;
+			}
+			int offset = 0;
+			for(int i = 0; i < nSlots; i++){
+				x.extract_inputs(i,states,i+1,buf.in1,buf.in2,offset,rows);
+				offset += i+1;
+			}
+			double[] pr1s = new double[rows];
+			prNext1(rows,pr1s,buf);
+			return pr1s;
+		}
+		
+		/*
+		 * Computes prNext1 for a given subset of the states after a given number of slots,
+		 * i.e. (nSlots1s[s],slots-nSlots1s[s]) for s < n_states, at once, using a batched forward pass.
+		 * The NN inputs for these states are looked up (see Input.extract_inputs). Intermediate results are stored in buf (for >= n_states rows).
+		 */
+		void prNext1(Input x, int slots, int[] nSlots1s, int n_states, double[] out, Buffers buf){
+			x.extract_inputs(slots,nSlots1s,n_states,buf.in1,buf.in2,0,n_states);
+			prNext1(n_states,out,buf);
+		}
+		
+		/*
+		 * Computes prNext1 for the n_states NN inputs in buf.
+		 */
+		private void prNext1(int n_states, double[] out, Buffers buf){
+			nn.predict(buf.in1,n_states,buf.pr1s,buf.activations,buf.new_activations);
+			nn.predict(buf.in2,n_states,buf.pr2s,buf.activations,buf.new_activations);
+			for(int s = 0; s < n_states; s++){
+				out[s] = prNext1(buf.pr1s[s],buf.pr2s[s]);
+			}
+		}
+		
+		private static double prNext1(double pr1, double pr2){
 			if(pr1 == pr2){
 				return 0.5;
 			}else{
@@ -187,25 +312,13 @@ public class SchedulerHH {
 	
 	
 	//TODO: improve modularity (split up into multiple auxiliary classes)
-	final static String folder= "HH_data";
-	final static long[][] seeds;
+	final static String folder= "HH_data"; //the data is loaded lazily, on first use (see HHDataset)
 	final static int[] hh1s;
 	final static int[] hh2s;
+	//the number of recently used inputs held in memory (other than those referenced by executions), e.g. -Dhh.input_cache=1024
+	final static InputCache inputs = new InputCache(Integer.getInteger("hh.input_cache", 128));
 	
 	static{
-		seeds = new long[98][32];
-		try (BufferedReader br = new BufferedReader(new FileReader(folder+"/input_seeds.csv"))) {
-		    String line;
-		    while ((line = br.readLine()) != null) {
-		    	String[] tokens = line.split(",");
-		    	int x = Integer.parseInt(tokens[0]);
-		    	for(int i = 0; i < 32; i++){
-		    		seeds[x][i] = Long.parseLong(tokens[1+i]);
-		    	}
-		    }
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 		hh1s = new int[91];
 		hh2s = new int[91];
 		int v = 0;
@@ -218,6 +331,28 @@ public class SchedulerHH {
 		}
 	}
 
+	/**
+	 * @return the time it took to load the dataset, and the statistics of the input and likelihood caches (e.g. printed after a run)
+	 */
+	public static String stats(LikelihoodCache likelihoods){
+		return HHDataset.get()+"\n"+inputs+"\n"+likelihoods;
+	}
+
+	/**
+	 * @return a new likelihood cache (for a single run), caching either a fixed number of rows (e.g. -Dhh.likelihood_cache=100000),
+	 *     or a number growing with the executions performed, within a memory budget (e.g. -Dhh.likelihood_cache_mb=1024, default 256)
+	 */
+	public static LikelihoodCache newLikelihoodCache(){
+		return new LikelihoodCache(Integer.getInteger("hh.likelihood_cache", 0), Long.getLong("hh.likelihood_cache_mb", 256) << 20);
+	}
+
+	/**
+	 * @return true iff the scheduler data is available (without loading it).
+	 */
+	public static boolean dataAvailable(){ //either extracted, or as hh_data.zip
+		return HHDataset.available(new File(folder));
+	}
+	
 	static enum HH{
 		AcceptAllHH,
 		AcceptNoWorseHH,
@@ -245,99 +380,161 @@ public class SchedulerHH {
 		id /= 98;
 		HH hh1 = HH.values()[hh1s[id]];
 		HH hh2 = HH.values()[hh2s[id]];
-		long seed = seeds[x][rng.nextInt(32)];
-		return new Input(x,seed,hh1,hh2);
+		long seed = HHDataset.get().seed(x,rng.nextInt(HHDataset.N_SEEDS));
+		return inputs.get(new InputCache.Key(x,seed,hh1,hh2));
 	}
 
+	/*
+	 * A trace of a heuristic, i.e. the best solution quality (bests) found at any time (times).
+	 * Traces are backed by primitive buffers, such that they can be views on a (mapped) TraceStore.
+	 */
 	static class Trace{
-		List<Long> times;
-		List<Double> bests;
-		List<Integer> index;
+		LongBuffer times;
+		DoubleBuffer bests;
+		IntBuffer index;
+		int size; //# entries in this (view on the) trace
 		
-		protected Trace(List<Long> t, List<Double> b, List<Integer> index){
+		protected Trace(LongBuffer t, DoubleBuffer b, IntBuffer index, int size){
 			this.times = t;
 			this.bests = b;
 			this.index = index;
+			this.size = size;
 		}
 		
-		protected Trace(List<Long> t, List<Double> b){
+		protected Trace(LongBuffer t, DoubleBuffer b){
 			this.times = t;
 			this.bests = b;
+			this.size = t.limit();
 			//create an index
-			index = new ArrayList<Integer>(nSlots+1);
+			index = IntBuffer.allocate(nSlots+1);
 			long time = 0;
 			int lastIndex = 0;
 			for(int i = 0; i <= nSlots; i++){
-				while(lastIndex < times.size() && times.get(lastIndex) < time){
+				while(lastIndex < size && times.get(lastIndex) < time){
 					lastIndex++;
 				}
-				index.add(lastIndex);
+				index.put(i,lastIndex);
 				time += time_per_slot;
 			}
 		}
 		
 		public double getBest(){
-			if(bests.size() > 0){
-				return bests.get(bests.size()-1);
+			if(size > 0){
+				return bests.get(size-1);
 			}else{
 				return Double.POSITIVE_INFINITY;
 			}
 		}
 		
 		public long getTimeForSQ(double sq, boolean inclusive){
-			int i = bests.size();
+			int i = size;
 			while(i > 0 && bests.get(i-1) < sq){i--;}
 			if(inclusive){
 				while(i > 0 && bests.get(i-1) == sq){i--;}
 			}
-			return i < times.size()? times.get(i) : Long.MAX_VALUE;	
+			return i < size? times.get(i) : Long.MAX_VALUE;	
+		}
+		
+		/*
+		 * Same as getView(size).getTimeForSQ(sq, inclusive), but using binary search and without creating a view.
+		 * Assumes bests to be non-increasing (i.e. best-so-far).
+		 */
+		public long getTimeForSQ(double sq, boolean inclusive, int size){
+			//find the first entry < sq (<= sq if inclusive)
+			int lo = 0;
+			int hi = size;
+			while(lo < hi){
+				int mid = (lo+hi) >>> 1;
+				double b = bests.get(mid);
+				if(b < sq || (inclusive && b == sq)){
+					hi = mid;
+				}else{
+					lo = mid+1;
+				}
+			}
+			return lo < size? times.get(lo) : Long.MAX_VALUE;
+		}
+		
+		/*
+		 * Returns the best solution quality found within n slots (i.e. getView(n).getBest()), for each n.
+		 */
+		public double[] getSlotBests(){
+			double[] slot_bests = new double[nSlots+1];
+			for(int n = 0; n <= nSlots; n++){
+				int i = index.get(n);
+				slot_bests[n] = i > 0? bests.get(i-1) : Double.POSITIVE_INFINITY;
+			}
+			return slot_bests;
 		}
 		
 		public Trace getView(int nSlots){
-			return new Trace(
-					times.subList(0, index.get(nSlots)),
-					bests.subList(0, index.get(nSlots)),
-					index.subList(0, nSlots+1)
-					);
+			return new Trace(times,bests,index,index.get(nSlots));
 		}
 		
 		static Trace fromFile(String path) throws FileNotFoundException, IOException{
-			List<Long> times = new ArrayList<Long>();
-			List<Double> bests = new ArrayList<Double>();
 			try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-			    String line;
-			    while ((line = br.readLine()) != null) {
-			       // process the line.
-			    	String[] tokens = line.split(",");
-			    	times.add(Long.parseLong(tokens[0]));
-			    	bests.add(Double.parseDouble(tokens[1]));
-			    }
+				return fromReader(br);
 			}
-			return new Trace(times,bests);
+		}
+		
+		static Trace fromReader(BufferedReader br) throws IOException{
+			long[] times = new long[64];
+			double[] bests = new double[64];
+			int n = 0;
+		    String line;
+		    while ((line = br.readLine()) != null) {
+		       // process the line.
+		    	String[] tokens = line.split(",");
+		    	if(n == times.length){
+		    		times = Arrays.copyOf(times, 2*n);
+		    		bests = Arrays.copyOf(bests, 2*n);
+		    	}
+		    	times[n] = Long.parseLong(tokens[0]);
+		    	bests[n] = Double.parseDouble(tokens[1]);
+		    	n++;
+		    }
+			return new Trace(LongBuffer.wrap(times,0,n),DoubleBuffer.wrap(bests,0,n));
 		}
 	}
 	
 	public static class Input{
+		final InputCache.Key key;
 		Trace t1;
 		Trace t2;
 		double[] desirabilities;
-		double[][] f1;
-		double[][] f2;
+		//the best solution quality found by each heuristic within n slots (see Trace.getSlotBests)
+		double[] bests1;
+		double[] bests2;
+		//the features of the states visited so far (see extract_inputs), for each number of slots i,
+		//for a band of states (nSlots1 in [lows[i],lows[i]+codes[i].length)), guarded by this
+		final int[] lows = new int[nSlots];
+		final byte[][] codes = new byte[nSlots][]; //encodes best1 and bestbudget1 (see code), -1 if not computed yet
+		final double[][] aheads = new double[nSlots][];
 		
 		public Input(int x, long seed, HH hh1, HH hh2){
-			String file1 = folder+"/"+x+"_"+seed+"_"+hh1;
-			String file2 = folder+"/"+x+"_"+seed+"_"+hh2;
+			this(new InputCache.Key(x,seed,hh1,hh2));
+		}
+		
+		Input(InputCache.Key key){
+			this.key = key;
+			HHDataset data = HHDataset.get();
 			try {
-				t1 = Trace.fromFile(file1);
-				t2 = Trace.fromFile(file2);
+				t1 = data.trace(key.x,key.seed,key.hh1);
+				t2 = data.trace(key.x,key.seed,key.hh2);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			bests1 = t1.getSlotBests();
+			bests2 = t2.getSlotBests();
 			compute_desirabilities();
-			compute_features(); //inputs for NN
+			//inputs for NN are computed on demand, for the states actually visited (see extract_inputs)
 		}
 		
-		double[][] extract_inputs(int nSlots1, int nSlots2){
+		/*
+		 * Reference implementation of the feature extraction (see extract_inputs below).
+		 * It is no longer used to compute features, but kept for validation/benchmarking purposes (see FeatureBenchmark).
+		 */
+		double[][] extract_inputs_reference(int nSlots1, int nSlots2){
 			Trace t1v,t2v,t1d,t2d;
 			t1v = t1d = t1.getView(nSlots1);
 			t2v = t2d = t2.getView(nSlots2);
@@ -364,28 +561,117 @@ public class SchedulerHH {
 			return new double[][]{{best1,bestbudget1,elapsed,tdiff1,ahead},{best2,bestbudget2,elapsed,tdiff2,ahead}};
 		}
 		
-		private void compute_features(){
-			int size = ((nSlots+1) * nSlots)/2;
-			f1 = new double[size][3];
-			f2 = new double[size][3];
-			int v = 0;
-			for(int i = 0; i < nSlots; i++){
-				for(int j = 0; j <= i; j++){
-					int nSlots1 = j;
-					int nSlots2 = i-j;
-					double[][] inputs = extract_inputs(nSlots1,nSlots2);
-					f1[v] = inputs[0];
-					f2[v] = inputs[1];
-					v++;
+		/*
+		 * Extracts the inputs for the NN in the states (nSlots1s[s],slots-nSlots1s[s]) for s < n_states,
+		 * writing them column-major into in1 and in2, i.e. at rows offset+s of a batch of the given number of rows.
+		 * The features which depend on the traces (best, bestbudget and ahead) are memoized, such that they are computed only once per input,
+		 * for the states visited by any policy (in either the pruned or unpruned DP). For each number of slots,
+		 * only the (growing) band of states visited so far is stored, i.e. 9 bytes per state.
+		 */
+		synchronized void extract_inputs(int slots, int[] nSlots1s, int n_states, double[] in1, double[] in2, int offset, int rows){
+			if(n_states == 0){
+				return;
+			}
+			int lo = nSlots1s[0];
+			int hi = nSlots1s[0];
+			for(int s = 1; s < n_states; s++){
+				lo = Math.min(lo, nSlots1s[s]);
+				hi = Math.max(hi, nSlots1s[s]);
+			}
+			band(slots, lo, hi);
+			byte[] code = codes[slots];
+			double[] ahead = aheads[slots];
+			int low = lows[slots];
+			for(int s = 0; s < n_states; s++){
+				int nSlots1 = nSlots1s[s];
+				int nSlots2 = slots-nSlots1;
+				int j = nSlots1-low;
+				if(code[j] < 0){
+					code[j] = code(nSlots1, nSlots2);
+					ahead[j] = ahead(nSlots1, nSlots2);
 				}
+				write(nSlots1, nSlots2, (code[j]/3)/2.0, (code[j]%3)/2.0, ahead[j], in1, in2, offset+s, rows);
+			}
+		}
+		
+		/*
+		 * Grows the band of memoized states after a given number of slots, such that it includes [lo,hi].
+		 */
+		private void band(int slots, int lo, int hi){
+			byte[] code = codes[slots];
+			int low = lows[slots];
+			if(code != null && lo >= low && hi < low+code.length){
+				return;
+			}
+			int new_low = code == null? lo : Math.min(lo, low);
+			int new_high = code == null? hi : Math.max(hi, low+code.length-1);
+			byte[] new_code = new byte[new_high-new_low+1];
+			double[] new_ahead = new double[new_code.length];
+			Arrays.fill(new_code, (byte) -1);
+			if(code != null){
+				System.arraycopy(code, 0, new_code, low-new_low, code.length);
+				System.arraycopy(aheads[slots], 0, new_ahead, low-new_low, code.length);
+			}
+			codes[slots] = new_code;
+			aheads[slots] = new_ahead;
+			lows[slots] = new_low;
+		}
+		
+		/*
+		 * Extracts the inputs for the NN in state (nSlots1,nSlots2), writing them into in1 and in2, at v, v+stride, ...
+		 * Unlike the batched version above, the features are computed from scratch.
+		 */
+		void extract_inputs(int nSlots1, int nSlots2, double[] in1, double[] in2, int v, int stride){
+			byte code = code(nSlots1, nSlots2);
+			write(nSlots1, nSlots2, (code/3)/2.0, (code%3)/2.0, ahead(nSlots1, nSlots2), in1, in2, v, stride);
+		}
+		
+		/*
+		 * Encodes best1 and bestbudget1 (each in {0,0.5,1}) in state (nSlots1,nSlots2) as 3*(2*best1)+2*bestbudget1.
+		 */
+		private byte code(int nSlots1, int nSlots2){
+			double b1v = bests1[nSlots1];
+			double b2v = bests2[nSlots2];
+			double b1d = nSlots1 > nSlots2? bests1[nSlots2] : b1v;
+			double b2d = nSlots1 < nSlots2? bests2[nSlots1] : b2v;
+			int best1 = b1v < b2v? 2 : b1v == b2v? 1 : 0;
+			int bestbudget1 = b1d < b2d? 2 : b1d == b2d? 1 : 0;
+			return (byte) (3*best1+bestbudget1);
+		}
+		
+		private double ahead(int nSlots1, int nSlots2){
+			double b1v = bests1[nSlots1];
+			double b2v = bests2[nSlots2];
+			//ahead ranges from [-1,1]
+			if(b1v < b2v && nSlots2 > 0){
+				return (double)(nSlots2*time_per_slot-t1.getTimeForSQ(b2v, false, t1.index.get(nSlots1)))/budget;
+			}else if(b1v > b2v && nSlots1 > 0){
+				return (double)(nSlots1*time_per_slot-t2.getTimeForSQ(b1v, false, t2.index.get(nSlots2)))/budget;
+			}else{
+				return 0;
 			}
 		}
 		
+		private static void write(int nSlots1, int nSlots2, double best1, double bestbudget1, double ahead, double[] in1, double[] in2, int v, int stride){
+			double elapsed = (double)(nSlots1+nSlots2)/nSlots;
+			double tdiff1 = (double)(nSlots1-nSlots2)/nSlots;
+			in1[v] = best1;
+			in1[v+stride] = bestbudget1;
+			in1[v+2*stride] = elapsed;
+			in1[v+3*stride] = tdiff1;
+			in1[v+4*stride] = ahead;
+			in2[v] = 1-best1;
+			in2[v+stride] = 1-bestbudget1;
+			in2[v+2*stride] = elapsed;
+			in2[v+3*stride] = -tdiff1;
+			in2[v+4*stride] = ahead;
+		}
+		
 		private void compute_desirabilities(){
 			//compute desirabilities
 			double[] sqs = new double[nSlots+1];
 			for(int i = 0; i <= nSlots; i++){
-				sqs[i] = Math.min(t1.getView(i).getBest(), t2.getView(nSlots-i).getBest());
+				sqs[i] = Math.min(bests1[i], bests2[nSlots-i]);
 			}
 			int[][] bews = new int[nSlots+1][3];
 			for(int i = 0; i < nSlots; i++){
@@ -0,0 +1,222 @@
+package is4ape.bench.scheduler_hh;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import is4ape.bench.scheduler_hh.SchedulerHH.HH;
+import is4ape.bench.scheduler_hh.SchedulerHH.Trace;
+
+/**
+ * A binary, memory-mapped store of all heuristic traces in HH_data.
+ *
+ * The store is created once from the (csv) trace files (see main), after which traces are
+ * read as (zero-copy) views on the mapped file, rather than being parsed. As the file is mapped
+ * read-only, its pages are shared by all JVMs using it on the same machine.
+ *
+ * Format (big-endian):
+ *   header: MAGIC (int), nSlots (int), offset of the directory (long)
+ *   data, for each trace: n (int), index (nSlots+1 ints), times (n longs), bests (n doubles)
+ *   directory: #traces (int), for each trace: x (int), seed (long), hh (int), offset (long)
+ * Traces never cross a CHUNK boundary, such that the file can be mapped in chunks of at most 2GB.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+class TraceStore {
+	static final int MAGIC = 0x48485452; //"HHTR"
+	static final long CHUNK = 1L << 30;
+
+	final int nSlots; //# slots for which the index was precomputed
+	final Map<Key,Long> offsets;
+	final MappedByteBuffer[] chunks;
+
+	/**
+	 * Uniquely identifies a trace.
+	 */
+	static class Key{
+		final int x;
+		final long seed;
+		final HH hh;
+
+		Key(int x, long seed, HH hh){
+			this.x = x;
+			this.seed = seed;
+			this.hh = hh;
+		}
+
+		/**
+		 * Parses the name of a trace file (x_seed_hh), returns null if it is not a trace file.
+		 */
+		static Key parse(String name){
+			try{
+				String[] tokens = name.split("_");
+				return new Key(Integer.parseInt(tokens[0]), Long.parseLong(tokens[1]), HH.valueOf(tokens[2]));
+			}catch(IllegalArgumentException | ArrayIndexOutOfBoundsException e){
+				return null; //not a trace file
+			}
+		}
+
+		public int hashCode(){
+			int hash = 23;
+			hash = hash * 31 + x;
+			hash = hash * 31 + Long.hashCode(seed);
+			hash = hash * 31 + hh.hashCode();
+			return hash;
+		}
+
+		public boolean equals(Object obj){
+			if(obj instanceof Key){
+				Key okey = (Key) obj;
+				return x == okey.x && seed == okey.seed && hh == okey.hh;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Opens (maps) an existing store.
+	 */
+	TraceStore(File file) throws IOException{
+		try(RandomAccessFile raf = new RandomAccessFile(file,"r"); FileChannel channel = raf.getChannel()){
+			long size = channel.size();
+			chunks = new MappedByteBuffer[(int)((size+CHUNK-1)/CHUNK)];
+			for(int i = 0; i < chunks.length; i++){
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, i*CHUNK, Math.min(CHUNK, size-i*CHUNK));
+			}
+		}
+		ByteBuffer header = chunks[0].duplicate();
+		if(header.getInt() != MAGIC){
+			throw new IOException(file+" is not a trace store");
+		}
+		nSlots = header.getInt();
+		long dir_offset = header.getLong();
+		//the directory may span multiple chunks
+		ByteBuffer dir;
+		try(RandomAccessFile raf = new RandomAccessFile(file,"r")){
+			byte[] bytes = new byte[(int)(raf.length()-dir_offset)];
+			raf.seek(dir_offset);
+			raf.readFully(bytes);
+			dir = ByteBuffer.wrap(bytes);
+		}
+		int n_traces = dir.getInt();
+		offsets = new HashMap<Key,Long>(2*n_traces);
+		for(int i = 0; i < n_traces; i++){
+			Key key = new Key(dir.getInt(), dir.getLong(), HH.values()[dir.getInt()]);
+			offsets.put(key, dir.getLong());
+		}
+	}
+
+	boolean contains(int x, long seed, HH hh){
+		return offsets.containsKey(new Key(x,seed,hh));
+	}
+
+	/**
+	 * Returns a given trace, as a view on the mapped file.
+	 */
+	Trace get(int x, long seed, HH hh){
+		Long offset = offsets.get(new Key(x,seed,hh));
+		if(offset == null){
+			return null;
+		}
+		ByteBuffer buf = chunks[(int)(offset/CHUNK)].duplicate();
+		buf.position((int)(offset%CHUNK));
+		int n = buf.getInt();
+		IntBuffer index = slice(buf, 4*(nSlots+1)).asIntBuffer();
+		LongBuffer times = slice(buf, 8*n).asLongBuffer();
+		DoubleBuffer bests = slice(buf, 8*n).asDoubleBuffer();
+		if(nSlots != SchedulerHH.nSlots){
+			//precomputed index not applicable
+			return new Trace(times,bests);
+		}
+		return new Trace(times,bests,index,n);
+	}
+
+	/*
+	 * Returns a view on the next length bytes of buf, and advances its position accordingly.
+	 */
+	private static ByteBuffer slice(ByteBuffer buf, int length){
+		ByteBuffer slice = buf.slice();
+		slice.limit(length);
+		buf.position(buf.position()+length);
+		return slice;
+	}
+
+	/**
+	 * Converts all trace files in a given folder to a binary store.
+	 * Trace files are expected to be named x_seed_hh.
+	 */
+	static void convert(File folder, File out) throws IOException{
+		Map<Key,Long> offsets = new HashMap<Key,Long>();
+		try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)))){
+			dos.writeInt(MAGIC);
+			dos.writeInt(SchedulerHH.nSlots);
+			dos.writeLong(0); //directory offset (filled in afterwards)
+			long pos = 16;
+			for(File f : folder.listFiles()){
+				Key key = Key.parse(f.getName());
+				if(key == null){
+					continue; //not a trace file
+				}
+				Trace t = Trace.fromFile(f.getPath());
+				long size = 4 + 4*(SchedulerHH.nSlots+1) + 16L*t.size;
+				if(pos/CHUNK != (pos+size-1)/CHUNK){
+					//pad, such that the trace starts in a new chunk
+					long next = (pos/CHUNK+1)*CHUNK;
+					for(; pos < next; pos++){
+						dos.writeByte(0);
+					}
+				}
+				offsets.put(key, pos);
+				dos.writeInt(t.size);
+				for(int i = 0; i <= SchedulerHH.nSlots; i++){
+					dos.writeInt(t.index.get(i));
+				}
+				for(int i = 0; i < t.size; i++){
+					dos.writeLong(t.times.get(i));
+				}
+				for(int i = 0; i < t.size; i++){
+					dos.writeDouble(t.bests.get(i));
+				}
+				pos += size;
+			}
+			//directory
+			dos.writeInt(offsets.size());
+			for(Map.Entry<Key,Long> entry : offsets.entrySet()){
+				Key key = entry.getKey();
+				dos.writeInt(key.x);
+				dos.writeLong(key.seed);
+				dos.writeInt(key.hh.ordinal());
+				dos.writeLong(entry.getValue());
+			}
+			dos.flush();
+			try(RandomAccessFile raf = new RandomAccessFile(out,"rw")){
+				raf.seek(8);
+				raf.writeLong(pos);
+			}
+		}
+	}
+
+	/**
+	 * Converts HH_data into a binary store, i.e. HH_data.bin
+	 */
+	public static void main(String[] args) throws IOException{
+		File folder = new File(args.length > 0? args[0] : SchedulerHH.folder);
+		File out = new File(args.length > 1? args[1] : SchedulerHH.folder+".bin");
+		long start = System.currentTimeMillis();
+		convert(folder,out);
+		System.out.println("converted "+folder+" to "+out+" in "+(System.currentTimeMillis()-start)+"ms");
+	}
+
+}
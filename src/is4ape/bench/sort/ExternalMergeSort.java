@@ -0,0 +1,218 @@
+package is4ape.bench.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * External-memory (out-of-core) merge sort, sorting sequences that need not fit in the heap.
+ *
+ * Sequences are stored in files of 32-bit (big-endian) ints, which are accessed through memory mappings.
+ * The sort proceeds in two phases:
+ *   run generation: the input is split into runs of at most budget ints, each of which is sorted in memory (using inner),
+ *                   and written to a temporary file
+ *   merge: all runs are merged (k-way, using a heap of run heads) into the output file
+ * I.e. the heap memory used is bounded by the budget (+ O(#runs)), regardless of the length of the sequence.
+ *
+ * It is not a member of any portfolio: all sequences in sort_data fit the budget, i.e. it would merely duplicate its inner sort.
+ * Instead, it sorts files (see main), e.g. sequences generated out-of-core, whose features can be computed using SequenceGenerator.features.
+ * Its int[] path sorts in memory if the range fits the budget, and out-of-core otherwise.
+ *
+ * Note that mappings are only released when they are garbage collected (closing a Mapped does not unmap it).
+ * On some platforms (e.g. Windows), mapped files cannot be deleted, so temporary files that cannot be deleted immediately are deleted on exit.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+class ExternalMergeSort extends SortingAlgo {
+	static final long CHUNK = 1L << 28; //# ints per mapping (1GB), see Mapped
+
+	final int budget; //# ints sorted in memory at once
+	final SortingAlgo inner; //the algorithm used to sort runs in memory
+
+	/**
+	 * Sorts a file of ints, i.e. a sequence that need not fit in the heap, printing its features (see SequenceGenerator.features)
+	 * and the time taken.
+	 *
+	 * @param args: in order:
+	 *     args[0]: the input file
+	 *     args[1]: the output file
+	 *     args[2]: OPTIONAL, the number of ints sorted in memory at once (default -Dsort.memory, or 2^22)
+	 */
+	public static void main(String[] args) throws IOException {
+		File in = new File(args[0]);
+		File out = new File(args[1]);
+		ExternalMergeSort sorter = args.length > 2? new ExternalMergeSort(Integer.parseInt(args[2]), new SortingAlgo.JavaSort()) : new ExternalMergeSort();
+		System.out.println("features (size, range, order, eqs): "+Arrays.toString(SequenceGenerator.features(in)));
+		long start = System.nanoTime();
+		sorter.sort(in, out);
+		System.out.println("sorted in "+(System.nanoTime()-start)/1000000+"ms");
+	}
+
+	ExternalMergeSort(){
+		this(Integer.getInteger("sort.memory", 1 << 22), new SortingAlgo.JavaSort());
+	}
+
+	ExternalMergeSort(int budget, SortingAlgo inner){
+		this.budget = budget;
+		this.inner = inner;
+	}
+
+	@Override
+	void sort(ArrayList<Integer> seq, int lo, int hi) {
+		sortUnboxed(seq,lo,hi);
+	}
+
+	@Override
+	void sort(int[] seq, int lo, int hi) {
+		if(hi-lo <= budget){
+			inner.sort(seq,lo,hi);
+			return;
+		}
+		try{
+			File in = File.createTempFile("ems", ".in");
+			File out = File.createTempFile("ems", ".out");
+			try{
+				try(Mapped m = new Mapped(in, hi-lo, true)){
+					for(int i = lo; i < hi; i++){
+						m.put(i-lo, seq[i]);
+					}
+				}
+				sort(in,out);
+				try(Mapped m = new Mapped(out, hi-lo, false)){
+					for(int i = lo; i < hi; i++){
+						seq[i] = m.get(i-lo);
+					}
+				}
+			}finally{
+				delete(in);
+				delete(out);
+			}
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Sorts the ints in file in, writing the result to file out.
+	 */
+	void sort(File in, File out) throws IOException{
+		long n = in.length()/4;
+		File tmp = File.createTempFile("ems", ".runs");
+		try{
+			//run generation
+			ArrayList<long[]> runs = new ArrayList<long[]>(); //{start, end}
+			int[] buffer = new int[(int)Math.min(budget, n)];
+			try(Mapped input = new Mapped(in, n, false); Mapped runs_out = new Mapped(tmp, n, true)){
+				for(long start = 0; start < n; start += budget){
+					int size = (int)Math.min(budget, n-start);
+					for(int i = 0; i < size; i++){
+						buffer[i] = input.get(start+i);
+					}
+					inner.sort(buffer,0,size);
+					for(int i = 0; i < size; i++){
+						runs_out.put(start+i, buffer[i]);
+					}
+					runs.add(new long[]{start, start+size});
+				}
+			}
+			buffer = null;
+			//k-way merge
+			try(Mapped runs_in = new Mapped(tmp, n, false); Mapped output = new Mapped(out, n, true)){
+				int k = runs.size();
+				long[] pos = new long[k]; //head of each run
+				long[] end = new long[k];
+				int[] heads = new int[k]; //value at the head of each run
+				int[] heap = new int[k]; //min-heap of (non-empty) runs, by head value
+				int size = 0;
+				for(int r = 0; r < k; r++){
+					pos[r] = runs.get(r)[0];
+					end[r] = runs.get(r)[1];
+					heads[r] = runs_in.get(pos[r]);
+					heap[size++] = r;
+				}
+				for(int i = size/2-1; i >= 0; i--){
+					sift_down(heap,heads,i,size);
+				}
+				for(long i = 0; i < n; i++){
+					int r = heap[0];
+					output.put(i, heads[r]);
+					if(++pos[r] < end[r]){
+						heads[r] = runs_in.get(pos[r]);
+					}else{
+						heap[0] = heap[--size];
+					}
+					sift_down(heap,heads,0,size);
+				}
+			}
+		}finally{
+			delete(tmp);
+		}
+	}
+
+	/*
+	 * Deletes a temporary file, or schedules it for deletion on exit if it is still mapped (see Mapped).
+	 */
+	private static void delete(File file){
+		if(!file.delete()){
+			file.deleteOnExit();
+		}
+	}
+
+	private static void sift_down(int[] heap, int[] heads, int i, int size){
+		int r = heap[i];
+		int child;
+		while((child = 2*i+1) < size){
+			if(child+1 < size && heads[heap[child+1]] < heads[heap[child]]){
+				child++;
+			}
+			if(heads[r] <= heads[heap[child]]){
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = r;
+	}
+
+	/**
+	 * A file of n ints, mapped in chunks of at most CHUNK ints.
+	 * Closing it closes the file, but the mappings remain valid until they are garbage collected (there is no public API to unmap them).
+	 */
+	static class Mapped implements AutoCloseable{
+		final RandomAccessFile raf;
+		final IntBuffer[] chunks;
+
+		Mapped(File file, long n, boolean write) throws IOException{
+			raf = new RandomAccessFile(file, write? "rw" : "r");
+			if(write){
+				raf.setLength(4*n);
+			}
+			FileChannel channel = raf.getChannel();
+			chunks = new IntBuffer[(int)((n+CHUNK-1)/CHUNK)];
+			for(int c = 0; c < chunks.length; c++){
+				long size = Math.min(CHUNK, n-c*CHUNK);
+				chunks[c] = channel.map(write? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 4*c*CHUNK, 4*size).asIntBuffer();
+			}
+		}
+
+		int get(long i){
+			return chunks[(int)(i/CHUNK)].get((int)(i%CHUNK));
+		}
+
+		void put(long i, int val){
+			chunks[(int)(i/CHUNK)].put((int)(i%CHUNK), val);
+		}
+
+		@Override
+		public void close() throws IOException{
+			raf.close();
+		}
+	}
+
+}
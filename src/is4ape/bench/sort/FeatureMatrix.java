@@ -0,0 +1,92 @@
+package is4ape.bench.sort;
+
+import java.util.Arrays;
+
+/**
+ * A (growing) matrix of feature vectors, stored column-wise, i.e. features[k][r] is feature k of row r,
+ * such that computations over many rows (e.g. scoring a design, see SelectionSignatures) are vectorizable.
+ *
+ * Rows are interned, i.e. equal feature vectors share a single row, using an (open addressing) hash table of row indices.
+ * intern is synchronized, reads (get, row) are not, i.e. a row may only be read by threads to which its index was handed
+ * after it was interned (e.g. through the executions of a run, whose add is synchronized, see InputSort.Executions).
+ *
+ * @author Steven Adriaensen
+ *
+ */
+class FeatureMatrix {
+	double[][] features;
+	int n_rows;
+	private int[] table; //row+1 (0: empty)
+
+	FeatureMatrix(int n_features){
+		features = new double[n_features][64];
+		table = new int[128];
+	}
+
+	/**
+	 * @return the row of phi_x, which is added if the matrix does not contain it already
+	 */
+	synchronized int intern(double[] phi_x){
+		int slot = find(phi_x);
+		if(table[slot] != 0){
+			return table[slot]-1;
+		}
+		int row = n_rows++;
+		if(row == features[0].length){
+			for(int k = 0; k < features.length; k++){
+				features[k] = Arrays.copyOf(features[k], 2*row);
+			}
+		}
+		for(int k = 0; k < features.length; k++){
+			features[k][row] = phi_x[k];
+		}
+		table[slot] = row+1;
+		if(2*n_rows > table.length){
+			//rehash
+			table = new int[2*table.length];
+			for(int r = 0; r < n_rows; r++){
+				table[find(row(r))] = r+1;
+			}
+		}
+		return row;
+	}
+
+	/*
+	 * @return the slot containing phi_x, or the empty slot where it is to be inserted
+	 */
+	private int find(double[] phi_x){
+		int slot = Arrays.hashCode(phi_x)*0x9E3779B9 >>> (32-Integer.numberOfTrailingZeros(table.length));
+		while(table[slot] != 0 && !equals(table[slot]-1, phi_x)){
+			slot = (slot+1) & (table.length-1);
+		}
+		return slot;
+	}
+
+	private boolean equals(int row, double[] phi_x){
+		for(int k = 0; k < features.length; k++){
+			if(Double.compare(features[k][row], phi_x[k]) != 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return feature k of a given row
+	 */
+	double get(int row, int k){
+		return features[k][row];
+	}
+
+	/**
+	 * @return (a copy of) a given row
+	 */
+	double[] row(int row){
+		double[] phi_x = new double[features.length];
+		for(int k = 0; k < phi_x.length; k++){
+			phi_x[k] = features[k][row];
+		}
+		return phi_x;
+	}
+
+}
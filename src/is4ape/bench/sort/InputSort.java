@@ -1,15 +1,25 @@
 package is4ape.bench.sort;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
+import is4ape.bench.data.DataSource;
+
+import is4ape.bench.sort.SortingAlgo.AdaptiveMergeSort;
 import is4ape.bench.sort.SortingAlgo.BubbleSort;
 import is4ape.bench.sort.SortingAlgo.HeapSort;
 import is4ape.bench.sort.SortingAlgo.InsertionSort;
+import is4ape.bench.sort.SortingAlgo.IntroSort;
 import is4ape.bench.sort.SortingAlgo.JavaSort;
 import is4ape.bench.sort.SortingAlgo.MergeSort;
+import is4ape.bench.sort.SortingAlgo.ParallelJavaSort;
+import is4ape.bench.sort.SortingAlgo.ParallelMergeSort;
+import is4ape.bench.sort.SortingAlgo.ParallelRadixSort;
 import is4ape.bench.sort.SortingAlgo.QuickSort;
 import is4ape.bench.sort.SortingAlgo.RadixSort;
 import is4ape.bench.sort.SortingAlgo.SelectionSort;
@@ -22,7 +32,8 @@ import is4ape.bench.sort.SortingAlgo.SelectionSort;
  */
 public class InputSort {
 
-	static List<SortingAlgo> algos = Arrays.asList(
+	//the portfolio used in our experiments (covered by sort_data)
+	static final List<SortingAlgo> DEFAULT = Arrays.asList(
 			new BubbleSort(),
 			new SelectionSort(),
 			new InsertionSort(),
@@ -33,42 +44,191 @@ public class InputSort {
 			new JavaSort()
 	);
 	
+	//the default portfolio, extended with parallel and hybrid algorithms
+	static final List<SortingAlgo> EXTENDED = Arrays.asList(
+			new BubbleSort(),
+			new SelectionSort(),
+			new InsertionSort(),
+			new MergeSort(),
+			new QuickSort(),
+			new HeapSort(),
+			new RadixSort(),
+			new JavaSort(),
+			new ParallelMergeSort(),
+			new ParallelRadixSort(),
+			new ParallelJavaSort(),
+			new IntroSort(),
+			new AdaptiveMergeSort()
+	);
+	
+	//the portfolio (-Dsort.portfolio=extended selects the extended one, which requires performance data for all its algorithms)
+	static List<SortingAlgo> algos = portfolio();
+	
+	private static List<SortingAlgo> portfolio(){
+		List<SortingAlgo> algos = "extended".equals(System.getProperty("sort.portfolio"))? EXTENDED : DEFAULT;
+		//selections are stored as bytes (see Executions and SelectionSignatures)
+		if(algos.size() > Byte.MAX_VALUE){
+			throw new IllegalStateException("portfolios have at most "+Byte.MAX_VALUE+" algorithms, got "+algos.size());
+		}
+		return algos;
+	}
+	
+	/**
+	 * @return the number of weights in a design, i.e. a bias and a weight per feature, for each algorithm in the portfolio
+	 */
+	public static int nWeights(){
+		return (SurrogateStore.N_FEATURES+1)*algos.size();
+	}
+	
+	/**
+	 * @return new instances of the algorithms in the portfolio (in order), e.g. for use by another thread (as algorithms reuse buffers)
+	 */
+	static List<SortingAlgo> newPortfolio(){
+		List<SortingAlgo> portfolio = new ArrayList<SortingAlgo>(algos.size());
+		for(SortingAlgo algo : algos){
+			try{
+				portfolio.add(algo.getClass().getDeclaredConstructor().newInstance());
+			}catch(ReflectiveOperationException e){
+				throw new IllegalStateException(e);
+			}
+		}
+		return portfolio;
+	}
+	
+	//the (normalized) features of the inputs in sort_data, filled once, when they are loaded (see SurrogateStore)
+	static final FeatureMatrix features = new FeatureMatrix(SurrogateStore.N_FEATURES);
+	
+	/**
+	 * The executions of a single run, stored column-wise: execution id used the input with features row rows[id] (of the feature matrix),
+	 * selected algorithm a_sels[id], and took ps[id] ms. Executions are added by a single thread (i.e. PoC).
+	 * Create one per run (see newExecutions and newLiveExecutions), as executions are never removed.
+	 * In live mode, the features of the inputs are interned in a feature matrix of the run, i.e. these do not accumulate across runs.
+	 */
+	public static class Executions{
+		final FeatureMatrix features; //the features of the inputs (shared by all runs on sort_data, per run in live mode)
+		int[] rows = new int[64];
+		byte[] a_sels = new byte[64]; //portfolios have at most 127 algorithms (see portfolio)
+		double[] ps = new double[64];
+		int size;
+		
+		Executions(FeatureMatrix features){
+			this.features = features;
+		}
+		
+		synchronized ExecutionInfo add(int row, int a_sel, double p){
+			if(size == rows.length){
+				rows = Arrays.copyOf(rows, 2*size);
+				a_sels = Arrays.copyOf(a_sels, 2*size);
+				ps = Arrays.copyOf(ps, 2*size);
+			}
+			rows[size] = row;
+			a_sels[size] = (byte) a_sel;
+			ps[size] = p;
+			return new ExecutionInfo(this,size++);
+		}
+	}
+	
+	/**
+	 * An execution, i.e. a handle on its data in executions.
+	 */
 	public static class ExecutionInfo{
-		double[] phi_x;
-		int a_sel;
-		double p;
+		final Executions executions;
+		final int id;
+		
+		ExecutionInfo(Executions executions, int id){
+			this.executions = executions;
+			this.id = id;
+		}
+		
+		int row(){
+			return executions.rows[id];
+		}
+		
+		int a_sel(){
+			return executions.a_sels[id];
+		}
 		
 		public String toString(){
-			return algos.get(a_sel)+" on "+Arrays.toString(phi_x);
+			return algos.get(a_sel())+" on "+Arrays.toString(executions.features.row(row()));
 		}
 	}
 	
+	/**
+	 * @return true iff the sort data is available, either extracted or as sort_data.zip.
+	 */
+	public static boolean dataAvailable(){
+		return SurrogateStore.available();
+	}
+	
+	/**
+	 * @return the executions of a new run on the inputs in sort_data (see run)
+	 */
+	public static Executions newExecutions(){
+		return new Executions(features);
+	}
+	
+	/**
+	 * @return the executions of a new run in live mode (see runLive)
+	 */
+	public static Executions newLiveExecutions(){
+		return new Executions(new FeatureMatrix(SurrogateStore.N_FEATURES));
+	}
+	
+	/**
+	 * @return new selection signatures for a run (with the given executions),
+	 *     allowing PoC to share IS estimates between designs with the same signature
+	 */
+	public static SelectionSignatures newSignatures(Executions executions){
+		return new SelectionSignatures(executions.features,4096);
+	}
+	
 	public static double pr(List<Double> theta, ExecutionInfo e){
-		return select(e.phi_x,theta) == e.a_sel? 1 : 0;
+		return select(e.executions.features,e.row(),theta) == e.a_sel()? 1 : 0;
+	}
+	
+	/**
+	 * Same as pr(theta,e), but looking up the selection in the signature of theta, if the input of e was registered (i.e. e is in E').
+	 */
+	public static double pr(SelectionSignatures signatures, List<Double> theta, ExecutionInfo e){
+		int row = e.row();
+		int a_sel = signatures.registered(row)? signatures.select(theta,row) : select(e.executions.features,row,theta);
+		return a_sel == e.a_sel()? 1 : 0;
 	}
 	
 	public static double p(ExecutionInfo e){
-		return e.p;
+		return e.executions.ps[e.id];
 	}
 	
 	public static int sample_D_training(Random rng) {
-		return rng.nextInt(15000);
+		return rng.nextInt(SurrogateStore.N_INSTANCES);
 	}
 	
-	public static ExecutionInfo run(int seq_id, List<Double> theta, Random rng){
-		SortingSurrogate pModel = new SortingSurrogate("sort_data",seq_id,rng);
-		ExecutionInfo e = new ExecutionInfo();
-		e.phi_x = pModel.getFeatures(seq_id).toVector();
-		e.a_sel = select(e.phi_x,theta);
-		e.p = pModel.getPerformanceObservation(algos.get(e.a_sel));
-		return e;
+	/**
+	 * Executes theta on the sequence with a given id, adding the execution to executions (see Executions).
+	 */
+	public static ExecutionInfo run(Executions executions, int seq_id, List<Double> theta, Random rng){
+		if(executions.features != features){
+			throw new IllegalArgumentException("executions of a live run (see newExecutions)");
+		}
+		SurrogateStore pModel = SurrogateStore.get(); //all instances are loaded once, on first use
+		int row = pModel.row(seq_id);
+		int a_sel = select(features,row,theta);
+		return executions.add(row, a_sel, pModel.getPerformanceObservation(seq_id,a_sel,rng));
 	}
 	
-	static private int select(double[] phi_x, List<Double> theta){
+	/*
+	 * Selects the algorithm with the highest linear score for the features phi_x in a given row (of features), i.e.
+	 * theta[i] + theta[n+i]*phi_x[0] + theta[2n+i]*phi_x[1] + ... for algorithm i (n = # algorithms).
+	 */
+	static private int select(FeatureMatrix features, int row, List<Double> theta){
+		int n = algos.size();
 		int sel = -1;
 		double besteval = Double.NEGATIVE_INFINITY;
-		for(int i = 0; i < 8; i++){
-			double eval = theta.get(i)+theta.get(8+i)*phi_x[0]+theta.get(16+i)*phi_x[1]+theta.get(24+i)*phi_x[2]+theta.get(32+i)*phi_x[3];
+		for(int i = 0; i < n; i++){
+			double eval = theta.get(i);
+			for(int k = 0; k < SurrogateStore.N_FEATURES; k++){
+				eval += theta.get((k+1)*n+i)*features.get(row,k);
+			}
 			if(eval > besteval){
 				besteval = eval;
 				sel = i;				
@@ -77,17 +237,71 @@ public class InputSort {
 		return sel;
 	}
 	
+	/*
+	 * Live mode: rather than replaying observations from sort_data, the selected algorithm is actually run (and timed).
+	 * Inputs are generated at random (see SequenceGenerator.sample), or sampled from the sequences in -Dsort.live_data
+	 * (a directory or zip archive). Settings: -Dsort.max_length (default 10000), -Dsort.warmup (2), -Dsort.reps (5).
+	 */
+	private static class Live{
+		static final int max_length = Integer.getInteger("sort.max_length", 10000);
+		static final SortTimer timer = new SortTimer(Integer.getInteger("sort.warmup", 2), Integer.getInteger("sort.reps", 5));
+		static final List<int[]> sequences = load(System.getProperty("sort.live_data"));
+		
+		private static List<int[]> load(String path){
+			if(path == null){
+				return null;
+			}
+			List<int[]> sequences = new ArrayList<int[]>();
+			try(DataSource data = DataSource.find(path, path)){
+				if(data == null){
+					throw new IllegalStateException("live data not found: "+path);
+				}
+				for(String name : data.names()){
+					try(BufferedReader br = data.reader(name)){
+						sequences.add(SequenceGenerator.load(br));
+					}
+				}
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+			return sequences;
+		}
+	}
+	
+	public static int[] sample_D_live(Random rng){
+		if(Live.sequences != null){
+			return Live.sequences.get(rng.nextInt(Live.sequences.size()));
+		}
+		return SequenceGenerator.sample(Live.max_length, rng);
+	}
+	
+	/**
+	 * Runs the algorithm selected by theta on seq, measuring its actual runtime (in ms, see SortTimer), adding the execution to executions.
+	 * The resulting execution is compatible with pr, i.e. the features are those used in sort_data.
+	 * The features of seq are interned in the feature matrix of the run.
+	 */
+	public static ExecutionInfo runLive(Executions executions, int[] seq, List<Double> theta){
+		if(executions.features == features){
+			throw new IllegalArgumentException("executions of a run on sort_data (see newLiveExecutions)");
+		}
+		int row = executions.features.intern(SortingSurrogate.getFeatures(seq).toVector()); //single pass
+		int a_sel = select(executions.features,row,theta);
+		return executions.add(row, a_sel, Live.timer.time(algos.get(a_sel), seq));
+	}
+	
 	public static List<Double> uniformGlobalPrior(Random rng) {
-		List<Double> design = new ArrayList<Double>(40);
-		for(int i = 0; i < 40; i++){
+		int n_weights = nWeights();
+		List<Double> design = new ArrayList<Double>(n_weights);
+		for(int i = 0; i < n_weights; i++){
 			design.add(2*rng.nextDouble()-1);
 		}
 		return design;
 	}
 
 	public static List<Double> gaussianLocalPrior(List<Double> current, Random rng){
-		List<Double> design = new ArrayList<Double>(40);
-		for(int i = 0; i < 40; i++){
+		int n_weights = nWeights();
+		List<Double> design = new ArrayList<Double>(n_weights);
+		for(int i = 0; i < n_weights; i++){
 			design.add(Math.max(-1, Math.min(current.get(i)+rng.nextGaussian()/40, 1)));
 		}
 		return design;
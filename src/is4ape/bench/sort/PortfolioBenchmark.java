@@ -0,0 +1,80 @@
+package is4ape.bench.sort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks a tuned InputSort design, deployed as a PortfolioSorter, against Arrays.sort (JavaSort),
+ * on sequences drawn from the distribution it was tuned for (see SequenceGenerator.sample).
+ * For each sequence, both are timed using SortTimer.measure (median of the timed runs), and the results are verified.
+ * The overhead of selection (computing features & scoring) is reported separately.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class PortfolioBenchmark {
+
+	/**
+	 * @param args: in order:
+	 *     args[0]: a trajectory file written by Main (scenario INPUTSORT or INPUTSORT_LIVE), its final incumbent is benchmarked
+	 *     args[1]: OPTIONAL, the number of sequences (default 200)
+	 *     args[2]: OPTIONAL, the maximum length of a sequence (default 200000)
+	 *     args[3]: OPTIONAL, the seed (default 0)
+	 * Use -Dsort.portfolio=extended for designs tuned for the extended portfolio.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length == 0){
+			System.out.println("usage: PortfolioBenchmark trajectory_file [n_sequences] [max_length] [seed]");
+			return;
+		}
+		List<Double> theta = PortfolioSorter.readIncumbent(new File(args[0]));
+		int n_sequences = args.length > 1? Integer.parseInt(args[1]) : 200;
+		int max_length = args.length > 2? Integer.parseInt(args[2]) : SequenceGenerator.MAX_LENGTH;
+		Random rng = new Random(args.length > 3? Long.parseLong(args[3]) : 0);
+		int warmup = 2;
+		int reps = 5;
+		PortfolioSorter sorter = new PortfolioSorter(theta);
+		SortingAlgo baseline = new SortingAlgo.JavaSort();
+		double t_portfolio = 0;
+		double t_baseline = 0;
+		double t_select = 0;
+		int wins = 0;
+		int errors = 0;
+		for(int s = 0; s < n_sequences; s++){
+			int[] seq = SequenceGenerator.sample(max_length, rng);
+			double tp = SortTimer.median(SortTimer.measure(sorter, seq, warmup, reps));
+			double tb = SortTimer.median(SortTimer.measure(baseline, seq, warmup, reps));
+			double[] ts = new double[reps];
+			for(int i = 0; i < reps; i++){
+				long start = System.nanoTime();
+				sorter.select(seq,0,seq.length);
+				ts[i] = (System.nanoTime()-start)/1000000.0;
+			}
+			t_select += SortTimer.median(ts);
+			t_portfolio += tp;
+			t_baseline += tb;
+			if(tp < tb){
+				wins++;
+			}
+			int[] sorted = seq.clone();
+			sorter.sort(sorted);
+			int[] expected = seq.clone();
+			Arrays.sort(expected);
+			if(!Arrays.equals(sorted, expected)){
+				errors++;
+			}
+		}
+		System.out.println("design: "+theta);
+		System.out.println("PortfolioSorter: "+t_portfolio+"ms (of which selection: "+t_select+"ms)");
+		System.out.println("Arrays.sort: "+t_baseline+"ms");
+		System.out.println("speedup: "+t_baseline/t_portfolio+", faster on "+wins+"/"+n_sequences+" sequences, errors: "+errors);
+		System.out.println("selected (incl. warm-up and verification runs):");
+		for(int a = 0; a < sorter.portfolio.length; a++){
+			System.out.println("  "+sorter.portfolio[a]+": "+sorter.selected[a]);
+		}
+	}
+
+}
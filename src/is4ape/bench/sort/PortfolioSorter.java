@@ -0,0 +1,204 @@
+package is4ape.bench.sort;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Deploys a (tuned) InputSort design, i.e. sorts using the algorithm in the portfolio selected by theta (see InputSort.select).
+ *
+ * Selection uses the features of SortingSurrogate. These are computed exactly (in a single pass) for short sequences,
+ * and estimated from a fixed-size sample of (evenly spaced) positions otherwise. The overhead of selection is O(SAMPLE)
+ * if enough of the sampled values repeat, and O(n) otherwise (see eqs), i.e. in either case small next to sorting a large sequence:
+ *   size: exact
+ *   range: the range of the sampled values
+ *   order: the fraction of sampled adjacent pairs that are in order
+ *   eqs: 1-D/n, where D is the number of distinct values, as estimated from the sample using the (bias-corrected)
+ *        Chao1 estimator, i.e. D = d + f1*(f1-1)/(2*(f2+1)), where d is the number of distinct values in the sample,
+ *        and f1 (f2) the number of values occurring once (twice) in the sample. This estimate is at most about SAMPLE^2/2,
+ *        and unreliable if few of the sampled values repeat (e.g. it yields eqs ~ 0.95 for 10^7 distinct values).
+ *        If fewer than MIN_REPEATS sampled values occur twice, D is therefore estimated using a HyperLogLog sketch instead,
+ *        in a single pass over the sequence, i.e. O(n), yet cheap next to sorting it.
+ * Occurrences are counted in a reusable hash table (and HyperLogLog sketch), and the design is copied into an array of weights once
+ * (on construction), i.e. selection does not allocate (other than the feature vector) or box.
+ *
+ * Like the algorithms in its portfolio, a PortfolioSorter reuses buffers, i.e. use one per thread.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class PortfolioSorter extends SortingAlgo {
+	static final int SAMPLE = 1024; //# positions sampled (features of shorter sequences are exact)
+	static final int MIN_REPEATS = 16; //the minimum f2 for which the Chao1 estimate is used
+
+	final SortingAlgo[] portfolio;
+	final double[] weights; //layout of theta, i.e. weights[i] + weights[n+i]*phi_x[0] + weights[2n+i]*phi_x[1] + ... for algorithm i
+	final long[] selected; //# times each algorithm was selected
+	//hash table counting the occurrences of the sampled values (entries with a different stamp are empty)
+	private final int[] keys = new int[2*SAMPLE];
+	private final int[] counts = new int[2*SAMPLE];
+	private final int[] stamps = new int[2*SAMPLE];
+	private int stamp = 0;
+	private final HyperLogLog sketch = new HyperLogLog(12); //estimates the number of distinct values if few sampled values repeat
+
+	/**
+	 * @param theta: a design for the portfolio InputSort.algos
+	 */
+	public PortfolioSorter(List<Double> theta){
+		this(theta, InputSort.newPortfolio());
+	}
+
+	PortfolioSorter(List<Double> theta, List<SortingAlgo> portfolio){
+		int n = portfolio.size();
+		if(theta.size() != (SurrogateStore.N_FEATURES+1)*n){
+			throw new IllegalArgumentException("expected "+(SurrogateStore.N_FEATURES+1)*n+" weights for a portfolio of "+n+" algorithms, got "+theta.size());
+		}
+		this.portfolio = portfolio.toArray(new SortingAlgo[n]);
+		weights = new double[theta.size()];
+		for(int i = 0; i < weights.length; i++){
+			weights[i] = theta.get(i);
+		}
+		selected = new long[n];
+	}
+
+	@Override
+	void sort(ArrayList<Integer> seq, int lo, int hi) {
+		sortUnboxed(seq,lo,hi);
+	}
+
+	@Override
+	public void sort(int[] seq){
+		sort(seq,0,seq.length);
+	}
+
+	/**
+	 * Sorts seq[lo] ... seq[hi-1] (in place), using the selected algorithm.
+	 */
+	@Override
+	public void sort(int[] seq, int lo, int hi) {
+		if(hi-lo < 2){
+			return;
+		}
+		int a = select(seq,lo,hi);
+		selected[a]++;
+		portfolio[a].sort(seq,lo,hi);
+	}
+
+	/**
+	 * @return the index of the algorithm selected to sort seq[lo] ... seq[hi-1]
+	 */
+	int select(int[] seq, int lo, int hi){
+		double[] phi_x = features(seq,lo,hi);
+		int n = portfolio.length;
+		int sel = -1;
+		double besteval = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; i++){
+			double eval = weights[i];
+			for(int k = 0; k < phi_x.length; k++){
+				eval += weights[(k+1)*n+i]*phi_x[k];
+			}
+			if(eval > besteval){
+				besteval = eval;
+				sel = i;
+			}
+		}
+		return sel;
+	}
+
+	/**
+	 * @return the (normalized) features of seq[lo] ... seq[hi-1], estimated from a sample if it is longer than SAMPLE
+	 */
+	double[] features(int[] seq, int lo, int hi){
+		int n = hi-lo;
+		if(n <= SAMPLE){
+			return SortingSurrogate.getFeatures(seq,lo,hi).toVector();
+		}
+		if(++stamp == 0){
+			//stamps wrapped around
+			Arrays.fill(stamps, 0);
+			stamp = 1;
+		}
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		int n_ordered = 0;
+		int d = 0; //# distinct values in the sample
+		int f1 = 0; //# values occurring once in the sample
+		int f2 = 0; //# values occurring twice in the sample
+		for(int j = 0; j < SAMPLE; j++){
+			//evenly spaced positions (excluding the last, as each position is compared to its successor)
+			int pos = lo+(int)((long)j*(n-1)/SAMPLE);
+			int val = seq[pos];
+			min = Math.min(min, val);
+			max = Math.max(max, val);
+			if(val <= seq[pos+1]){
+				n_ordered++;
+			}
+			switch(count(val)){
+			case 1: d++; f1++; break;
+			case 2: f1--; f2++; break;
+			case 3: f2--; break;
+			}
+		}
+		double distinct;
+		if(f2 >= MIN_REPEATS){
+			//bias-corrected Chao1 estimate of the number of distinct values in seq
+			distinct = d+f1*(f1-1)/(2.0*(f2+1));
+		}else{
+			//few repeats: estimate the number of distinct values in seq in a single pass
+			sketch.clear();
+			for(int i = lo; i < hi; i++){
+				sketch.add(seq[i]);
+			}
+			distinct = Math.max(d, sketch.estimate());
+		}
+		distinct = Math.min(distinct, n);
+		return SortingSurrogate.getFeatures(n, (long)max-min, (double)n_ordered/SAMPLE, 1-distinct/n).toVector();
+	}
+
+	/*
+	 * Counts an occurrence of val in the hash table.
+	 *
+	 * @return the number of occurrences of val counted so far
+	 */
+	private int count(int val){
+		int slot = (val*0x9E3779B9) >>> (32-Integer.numberOfTrailingZeros(keys.length));
+		while(stamps[slot] == stamp && keys[slot] != val){
+			slot = (slot+1) & (keys.length-1);
+		}
+		if(stamps[slot] != stamp){
+			stamps[slot] = stamp;
+			keys[slot] = val;
+			counts[slot] = 0;
+		}
+		return ++counts[slot];
+	}
+
+	/**
+	 * Reads the final incumbent from a trajectory file written by PoC (see PoC.minimize),
+	 * i.e. the design in the last line, formatted as [w_1, w_2, ...].
+	 */
+	public static List<Double> readIncumbent(File trajectory) throws IOException{
+		String last = null;
+		try(BufferedReader br = new BufferedReader(new FileReader(trajectory))){
+			String line;
+			while((line = br.readLine()) != null){
+				if(line.indexOf('[') >= 0){
+					last = line;
+				}
+			}
+		}
+		if(last == null){
+			throw new IOException("no design found in "+trajectory);
+		}
+		List<Double> theta = new ArrayList<Double>();
+		for(String w : last.substring(last.indexOf('[')+1, last.indexOf(']')).split(",")){
+			theta.add(Double.parseDouble(w.trim()));
+		}
+		return theta;
+	}
+
+}
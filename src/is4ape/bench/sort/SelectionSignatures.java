@@ -0,0 +1,254 @@
+package is4ape.bench.sort;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import is4ape.bench.sort.InputSort.ExecutionInfo;
+import is4ape.pm.memoize.Signature;
+
+/**
+ * Selection signatures of InputSort designs, i.e. the algorithm selected by a design for each distinct feature vector in E'.
+ * Designs with the same signature select the same algorithm for every execution in E', i.e. have identical likelihood
+ * columns and IS estimates. Signatures are used
+ *   - by PoC (see MemoizePM), to share o, n, unc and sim between such designs
+ *   - by InputSort.pr, which looks up the selection in the signature, rather than scoring the design for each execution
+ *
+ * The features of the (distinct) inputs in E' are copied column-wise (one array per feature), such that the scores of
+ * an algorithm are computed in a single (vectorizable) pass over them. Signatures are extended incrementally as E' grows,
+ * and cached for the most recently used designs (compared by identity).
+ * Signatures are per run (see InputSort.newSignatures), i.e. registered inputs are forgotten on clear.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class SelectionSignatures implements Signature<List<Double>,ExecutionInfo> {
+	final int capacity; //# designs whose signature is cached
+
+	final FeatureMatrix matrix; //the features of all inputs
+	//the features of the inputs in E' (column-wise, as in matrix), i.e. features[k][r] is feature k of the r-th input registered
+	double[][] features;
+	int n_rows;
+	int[] pos; //pos[row]: the position of a given row of matrix in features (-1: not registered)
+
+	final Map<Key,Selections> cache;
+	Selections last; //the most recently used signature, as pr is called for many executions in a row for the same design
+	//scratch
+	double[] scores;
+	double[] best;
+
+	//statistics
+	long hits;
+	long misses;
+
+	static class Key{
+		final List<Double> theta; //compared by identity
+
+		Key(List<Double> theta){
+			this.theta = theta;
+		}
+
+		public int hashCode(){
+			return System.identityHashCode(theta);
+		}
+
+		public boolean equals(Object obj){
+			if(obj instanceof Key){
+				return theta == ((Key) obj).theta;
+			}
+			return false;
+		}
+	}
+
+	/*
+	 * The algorithm selected by a design for the first n rows.
+	 */
+	static class Selections{
+		final List<Double> theta;
+		byte[] sel;
+		int n;
+		Sig sig; //the signature of the first n rows (null if not computed yet)
+
+		Selections(List<Double> theta){
+			this.theta = theta;
+			sel = new byte[0];
+		}
+	}
+
+	/*
+	 * A signature, i.e. an immutable view on the first n selections.
+	 * Selections are only ever appended (when growing, sel is copied), i.e. the view remains valid.
+	 */
+	static class Sig{
+		final byte[] sel;
+		final int n;
+		final int hash;
+
+		Sig(byte[] sel, int n){
+			this.sel = sel;
+			this.n = n;
+			int hash = 23;
+			for(int r = 0; r < n; r++){
+				hash = hash * 31 + sel[r];
+			}
+			this.hash = hash;
+		}
+
+		public int hashCode(){
+			return hash;
+		}
+
+		public boolean equals(Object obj){
+			if(obj instanceof Sig){
+				Sig osig = (Sig) obj;
+				return hash == osig.hash && Arrays.equals(sel, 0, n, osig.sel, 0, osig.n);
+			}
+			return false;
+		}
+	}
+
+	SelectionSignatures(FeatureMatrix matrix, int capacity){
+		this.matrix = matrix;
+		this.capacity = capacity;
+		features = new double[matrix.features.length][64];
+		pos = new int[0];
+		scores = new double[64];
+		best = new double[64];
+		cache = new LinkedHashMap<Key,Selections>(16,0.75f,true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,Selections> eldest){
+				return size() > SelectionSignatures.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Registers the input of an execution, i.e. copies its features (if not registered already).
+	 */
+	@Override
+	public synchronized void update(ExecutionInfo exec){
+		int row = exec.row();
+		if(row >= pos.length){
+			int size = pos.length;
+			pos = Arrays.copyOf(pos, Math.max(row+1, 2*size));
+			Arrays.fill(pos, size, pos.length, -1);
+		}
+		if(pos[row] >= 0){
+			return;
+		}
+		int r = n_rows++;
+		if(r == features[0].length){
+			for(int k = 0; k < features.length; k++){
+				features[k] = Arrays.copyOf(features[k], 2*r);
+			}
+			scores = new double[2*r];
+			best = new double[2*r];
+		}
+		for(int k = 0; k < features.length; k++){
+			features[k][r] = matrix.get(row,k);
+		}
+		pos[row] = r;
+	}
+	
+	@Override
+	public synchronized void clear(){
+		Arrays.fill(pos, -1);
+		n_rows = 0;
+		cache.clear();
+		last = null;
+		hits = 0;
+		misses = 0;
+	}
+	
+	/**
+	 * @return true iff a given row of the matrix was registered
+	 */
+	synchronized boolean registered(int row){
+		return row < pos.length && pos[row] >= 0;
+	}
+
+	@Override
+	public synchronized Object of(List<Double> theta){
+		Selections s = selections(theta);
+		if(s.sig == null){
+			s.sig = new Sig(s.sel, s.n);
+		}
+		return s.sig;
+	}
+
+	/**
+	 * @return the index of the algorithm selected by theta for a given (registered) row of the matrix
+	 */
+	synchronized int select(List<Double> theta, int row){
+		return selections(theta).sel[pos[row]];
+	}
+
+	/*
+	 * Looks up (or computes) the selections of theta, for all rows.
+	 */
+	private Selections selections(List<Double> theta){
+		Selections s = last;
+		if(s == null || s.theta != theta){
+			Key key = new Key(theta);
+			s = cache.get(key);
+			if(s == null){
+				misses++;
+				s = new Selections(theta);
+				cache.put(key, s);
+			}else{
+				hits++;
+			}
+			last = s;
+		}
+		if(s.n < n_rows){
+			extend(s);
+		}
+		return s;
+	}
+
+	/*
+	 * Computes the selections for the rows added since, i.e. rows s.n ... n_rows-1,
+	 * selecting the algorithm with the highest score (first, in case of ties), as in InputSort.select.
+	 */
+	private void extend(Selections s){
+		int from = s.n;
+		int to = n_rows;
+		if(s.sel.length < to){
+			s.sel = Arrays.copyOf(s.sel, features[0].length);
+		}
+		for(int r = from; r < to; r++){
+			best[r] = Double.NEGATIVE_INFINITY;
+			s.sel[r] = -1;
+		}
+		int n = InputSort.algos.size();
+		for(int i = 0; i < n; i++){
+			double bias = s.theta.get(i);
+			for(int r = from; r < to; r++){
+				scores[r] = bias;
+			}
+			for(int k = 0; k < features.length; k++){
+				double w = s.theta.get((k+1)*n+i);
+				double[] f = features[k];
+				for(int r = from; r < to; r++){
+					scores[r] += w*f[r];
+				}
+			}
+			for(int r = from; r < to; r++){
+				if(scores[r] > best[r]){
+					best[r] = scores[r];
+					s.sel[r] = (byte) i;
+				}
+			}
+		}
+		s.n = to;
+		s.sig = null;
+	}
+
+	public String toString(){
+		return "rows: "+n_rows+", hits: "+hits+", misses: "+misses;
+	}
+
+}
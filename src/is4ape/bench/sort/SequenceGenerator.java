@@ -0,0 +1,178 @@
+package is4ape.bench.sort;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates (and loads) the integer sequences to be sorted, and computes their (raw) features, i.e.
+ *   size: the length of the sequence
+ *   range: the difference between its largest and smallest value
+ *   order: the fraction of adjacent pairs that are in order (non-decreasing)
+ *   eqs: the fraction of values that are duplicates (of another value in the sequence)
+ *
+ * @author Steven Adriaensen
+ *
+ */
+class SequenceGenerator {
+	static final int MIN_LENGTH = 2;
+	static final int MAX_LENGTH = 200000; //the largest inputs in sort_data
+	static final long MAX_RANGE = 2000000000L; //values in sort_data are within [-10^9,10^9]
+
+	/**
+	 * Generates a sequence with (approximately) the given features.
+	 *
+	 * @param length: the length of the sequence
+	 * @param range: values are drawn from [-range/2,range/2]
+	 * @param order: the sequence is sorted, after which a fraction 1-order of its values are shuffled
+	 * @param eqs: values are drawn from (1-eqs)*length distinct values
+	 */
+	static int[] generate(int length, long range, double order, double eqs, Random rng){
+		range = Math.min(range, MAX_RANGE);
+		int n_distinct = (int)Math.max(1, Math.round((1-eqs)*length));
+		int[] pool = new int[n_distinct];
+		for(int i = 0; i < n_distinct; i++){
+			pool[i] = (int)(-range/2 + (long)(rng.nextDouble()*(range+1)));
+		}
+		int[] seq = new int[length];
+		for(int i = 0; i < length; i++){
+			//each distinct value at least once (if possible)
+			seq[i] = i < n_distinct? pool[i] : pool[rng.nextInt(n_distinct)];
+		}
+		Arrays.sort(seq);
+		//shuffle the values at a random subset of positions
+		int n_shuffled = (int)Math.round((1-order)*length);
+		int[] positions = new int[length];
+		for(int i = 0; i < length; i++){
+			positions[i] = i;
+		}
+		for(int i = 0; i < n_shuffled; i++){
+			int j = i+rng.nextInt(length-i);
+			int temp = positions[i];
+			positions[i] = positions[j];
+			positions[j] = temp;
+		}
+		for(int i = n_shuffled-1; i > 0; i--){
+			int j = rng.nextInt(i+1);
+			int temp = seq[positions[i]];
+			seq[positions[i]] = seq[positions[j]];
+			seq[positions[j]] = temp;
+		}
+		return seq;
+	}
+
+	/**
+	 * Generates a sequence at a random point of the feature space, i.e. with
+	 * log-uniform length in [MIN_LENGTH,max_length], log-uniform range in [1,MAX_RANGE], and uniform order and eqs.
+	 */
+	static int[] sample(int max_length, Random rng){
+		int length = (int)Math.round(Math.exp(Math.log(MIN_LENGTH)+rng.nextDouble()*(Math.log(max_length)-Math.log(MIN_LENGTH))));
+		long range = Math.round(Math.exp(rng.nextDouble()*Math.log(MAX_RANGE)));
+		return generate(length, range, rng.nextDouble(), rng.nextDouble(), rng);
+	}
+
+	/**
+	 * Loads a sequence, i.e. integers separated by commas, whitespace and/or newlines.
+	 */
+	static int[] load(BufferedReader br) throws IOException{
+		int[] seq = new int[64];
+		int n = 0;
+		String line;
+		while((line = br.readLine()) != null){
+			for(String token : line.split("[,\\s]+")){
+				if(!token.isEmpty()){
+					if(n == seq.length){
+						seq = Arrays.copyOf(seq, 2*n);
+					}
+					seq[n++] = Integer.parseInt(token);
+				}
+			}
+		}
+		return Arrays.copyOf(seq, n);
+	}
+
+	/**
+	 * Computes the raw features of a sequence stored in a file of ints (see ExternalMergeSort), in a single (streaming) pass
+	 * over a memory mapping of the file, i.e. the sequence need not fit in the heap.
+	 * All features are exact, except for eqs: the number of distinct values is estimated using a HyperLogLog sketch
+	 * (2^14 registers, i.e. a relative standard error of about 0.8%).
+	 */
+	static double[] features(File file) throws IOException{
+		long n = file.length()/4;
+		if(n == 0){
+			return new double[]{0,0,1,0};
+		}
+		HyperLogLog hll = new HyperLogLog(14);
+		try(ExternalMergeSort.Mapped seq = new ExternalMergeSort.Mapped(file, n, false)){
+			int prev = seq.get(0);
+			int min = prev;
+			int max = prev;
+			long n_ordered = 0;
+			for(long i = 0; i < n; i++){
+				int val = seq.get(i);
+				if(i > 0){
+					min = Math.min(min, val);
+					max = Math.max(max, val);
+					if(prev <= val){
+						n_ordered++;
+					}
+				}
+				prev = val;
+				hll.add(val);
+			}
+			double distinct = Math.max(1, Math.min(hll.estimate(), n));
+			double order = n > 1? (double)n_ordered/(n-1) : 1;
+			return new double[]{n, (long)max-min, order, 1-distinct/n};
+		}
+	}
+
+	/**
+	 * Computes the raw features of a sequence {size, range, order, eqs}, in a single pass.
+	 * Duplicates are counted using an (open addressing) hash set of the values seen.
+	 */
+	static double[] features(int[] seq){
+		return features(seq,0,seq.length);
+	}
+
+	/**
+	 * Computes the raw features of seq[lo] ... seq[hi-1], see features(int[]).
+	 */
+	static double[] features(int[] seq, int lo, int hi){
+		int n = hi-lo;
+		if(n <= 0){
+			return new double[]{0,0,1,0};
+		}
+		int min = seq[lo];
+		int max = seq[lo];
+		int n_ordered = 0;
+		int n_duplicates = 0;
+		int capacity = Integer.highestOneBit(Math.max(2*n-1, 1))*2;
+		int[] table = new int[capacity];
+		boolean[] used = new boolean[capacity];
+		for(int i = lo; i < hi; i++){
+			int val = seq[i];
+			if(i > lo){
+				min = Math.min(min, val);
+				max = Math.max(max, val);
+				if(seq[i-1] <= val){
+					n_ordered++;
+				}
+			}
+			int slot = (val*0x9E3779B9) >>> (32-Integer.numberOfTrailingZeros(capacity));
+			while(used[slot] && table[slot] != val){
+				slot = (slot+1) & (capacity-1);
+			}
+			if(used[slot]){
+				n_duplicates++;
+			}else{
+				used[slot] = true;
+				table[slot] = val;
+			}
+		}
+		double order = n > 1? (double)n_ordered/(n-1) : 1;
+		return new double[]{n, (long)max-min, order, (double)n_duplicates/n};
+	}
+
+}
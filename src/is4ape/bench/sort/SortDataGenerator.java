@@ -0,0 +1,143 @@
+package is4ape.bench.sort;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates sort_data, i.e. the performance observations used by the (surrogate) InputSort scenario,
+ * e.g. for new hardware, or a different portfolio (see InputSort.algos).
+ *
+ * Instance i is a sequence generated at a random point of the feature space (see SequenceGenerator.sample),
+ * using a random generator seeded with (seed, i), such that each instance can be regenerated independently.
+ * Every algorithm in the portfolio is benchmarked on it (after warm-up, see SortTimer.measure),
+ * and the results are written to i.txt, in the format read by SurrogateStore:
+ *   i,size,range,order,eqs
+ *   for each algorithm: name,runtime_1,...,runtime_reps
+ *
+ * Instances are processed in parallel, by a pool of workers, each using its own instances of the algorithms.
+ * Result files are written atomically (as soon as they are complete), and instances whose file exists are skipped,
+ * i.e. an interrupted run can simply be resumed. Note that concurrent workers compete for the same hardware,
+ * i.e. use a single worker if timings are to be fully isolated.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class SortDataGenerator {
+	final File folder;
+	final int n_instances;
+	final int max_length;
+	final int warmup;
+	final int reps;
+	final long seed;
+
+	SortDataGenerator(File folder, int n_instances, int max_length, int warmup, int reps, long seed){
+		this.folder = folder;
+		this.n_instances = n_instances;
+		this.max_length = max_length;
+		this.warmup = warmup;
+		this.reps = reps;
+		this.seed = seed;
+	}
+
+	/**
+	 * Generates all instances not generated already, using a given number of workers.
+	 */
+	void generate(int n_workers) throws IOException, InterruptedException{
+		if(!folder.isDirectory() && !folder.mkdirs()){
+			throw new IOException("Cannot create "+folder);
+		}
+		//each worker uses its own algorithm instances (as these reuse buffers)
+		ThreadLocal<List<SortingAlgo>> portfolio = ThreadLocal.withInitial(InputSort::newPortfolio);
+		AtomicInteger done = new AtomicInteger();
+		long start = System.currentTimeMillis();
+		ExecutorService workers = Executors.newFixedThreadPool(n_workers);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		int skipped = 0;
+		for(int i = 0; i < n_instances; i++){
+			if(new File(folder,i+".txt").exists()){
+				skipped++;
+				continue;
+			}
+			final int id = i;
+			results.add(workers.submit(() -> {
+				generate(id, portfolio.get());
+				int n = done.incrementAndGet();
+				if(n % 100 == 0){
+					System.out.println("generated "+n+" instances in "+(System.currentTimeMillis()-start)/1000+"s");
+				}
+				return null;
+			}));
+		}
+		System.out.println("skipped "+skipped+" existing instances, generating "+results.size());
+		workers.shutdown();
+		try{
+			for(Future<?> result : results){
+				result.get();
+			}
+		}catch(ExecutionException e){
+			workers.shutdownNow();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void generate(int id, List<SortingAlgo> portfolio){
+		Random rng = new Random(seed*31+id);
+		int[] seq = SequenceGenerator.sample(max_length, rng);
+		double[] features = SequenceGenerator.features(seq);
+		File tmp = new File(folder,id+".txt.tmp");
+		try{
+			try(BufferedWriter bw = new BufferedWriter(new FileWriter(tmp))){
+				bw.write(id+","+(int)features[0]+","+(long)features[1]+","+features[2]+","+features[3]);
+				bw.newLine();
+				for(SortingAlgo algo : portfolio){
+					double[] times = SortTimer.measure(algo, seq, warmup, reps);
+					StringBuilder line = new StringBuilder(algo.toString());
+					for(double t : times){
+						line.append(',').append(t);
+					}
+					bw.write(line.toString());
+					bw.newLine();
+				}
+			}
+			Files.move(tmp.toPath(), new File(folder,id+".txt").toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param args: OPTIONAL, in order:
+	 *     args[0]: the output directory (default sort_data)
+	 *     args[1]: the number of instances (default 15000)
+	 *     args[2]: the number of workers (default 1)
+	 *     args[3]: the maximum length of a sequence (default 200000)
+	 *     args[4]: the number of warm-up runs (default 2)
+	 *     args[5]: the number of timed runs, i.e. observations per algorithm (default 10)
+	 *     args[6]: the seed (default 0)
+	 * The portfolio is InputSort.algos, i.e. use -Dsort.portfolio=extended to include the parallel and hybrid algorithms.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File folder = new File(args.length > 0? args[0] : SurrogateStore.FOLDER);
+		int n_instances = args.length > 1? Integer.parseInt(args[1]) : SurrogateStore.N_INSTANCES;
+		int n_workers = args.length > 2? Integer.parseInt(args[2]) : 1;
+		int max_length = args.length > 3? Integer.parseInt(args[3]) : SequenceGenerator.MAX_LENGTH;
+		int warmup = args.length > 4? Integer.parseInt(args[4]) : 2;
+		int reps = args.length > 5? Integer.parseInt(args[5]) : 10;
+		long seed = args.length > 6? Long.parseLong(args[6]) : 0;
+		new SortDataGenerator(folder,n_instances,max_length,warmup,reps,seed).generate(n_workers);
+	}
+
+}
@@ -0,0 +1,82 @@
+package is4ape.bench.sort;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the runtime of sorting algorithms (int[] path).
+ *
+ * Each measurement first sorts a number of (untimed) copies of the sequence to warm up, after which
+ * it times a number of repetitions (each sorting a fresh copy) and reports the median.
+ * All measurements are performed, one at a time, on a single dedicated thread, such that concurrent
+ * callers do not interfere with each other's timings, and the timed thread is always the same
+ * (the JVM does not support pinning threads to cores).
+ *
+ * @author Steven Adriaensen
+ *
+ */
+class SortTimer {
+	final int warmup; //# untimed runs
+	final int reps; //# timed runs
+	private final ExecutorService thread;
+
+	SortTimer(int warmup, int reps){
+		this.warmup = warmup;
+		this.reps = reps;
+		thread = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "SortTimer");
+			t.setDaemon(true);
+			t.setPriority(Thread.MAX_PRIORITY);
+			return t;
+		});
+	}
+
+	/**
+	 * @return the median runtime (in ms) of algo sorting seq (seq itself is not modified)
+	 */
+	double time(SortingAlgo algo, int[] seq){
+		try{
+			return thread.submit(() -> measure(algo,seq)).get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private double measure(SortingAlgo algo, int[] seq){
+		return median(measure(algo,seq,warmup,reps));
+	}
+	
+	static double median(double[] times){
+		times = times.clone();
+		Arrays.sort(times);
+		int n = times.length;
+		return n % 2 == 1? times[n/2] : (times[n/2-1]+times[n/2])/2;
+	}
+
+	/**
+	 * Measures the runtimes (in ms) of algo sorting seq, in the calling thread.
+	 *
+	 * @return the runtime of each timed repetition (in order)
+	 */
+	static double[] measure(SortingAlgo algo, int[] seq, int warmup, int reps){
+		int[] work = new int[seq.length];
+		for(int i = 0; i < warmup; i++){
+			System.arraycopy(seq, 0, work, 0, seq.length);
+			algo.sort(work);
+		}
+		double[] times = new double[reps];
+		for(int i = 0; i < reps; i++){
+			System.arraycopy(seq, 0, work, 0, seq.length);
+			long start = System.nanoTime();
+			algo.sort(work);
+			times[i] = (System.nanoTime()-start)/1000000.0;
+		}
+		return times;
+	}
+
+}
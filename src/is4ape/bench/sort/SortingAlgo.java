@@ -5,19 +5,60 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * A sorting algorithm, sorting either a list of Integers, or (a range of) a primitive int[].
+ * 
+ * The int[] implementations sort in place and do not allocate (other than growing reusable buffers),
+ * such that their runtime reflects the algorithm, rather than boxing and garbage collection.
+ * As algorithms may reuse buffers, an instance should not be used by multiple threads concurrently.
+ * 
+ * @author Steven Adriaensen
+ *
+ */
 abstract public class SortingAlgo {
 	
 	void sort(ArrayList<Integer> seq){
 		sort(seq,0,seq.size());
 	}
 	
+	void sort(int[] seq){
+		sort(seq,0,seq.length);
+	}
+	
 	public String toString(){
 		return this.getClass().getSimpleName();
 	}
 	
 	abstract void sort(ArrayList<Integer> seq, int lo, int hi);
 	
+	/**
+	 * Sorts seq[lo] ... seq[hi-1] (in place).
+	 */
+	abstract void sort(int[] seq, int lo, int hi);
+	
+	/*
+	 * Sorts seq[lo] ... seq[hi-1] using the int[] implementation (for algorithms without a list implementation of their own).
+	 */
+	void sortUnboxed(ArrayList<Integer> seq, int lo, int hi){
+		int[] values = new int[hi-lo];
+		for(int i = lo; i < hi; i++){
+			values[i-lo] = seq.get(i);
+		}
+		sort(values);
+		for(int i = lo; i < hi; i++){
+			seq.set(i, values[i-lo]);
+		}
+	}
+	
+	static void swap(int[] seq, int i, int j){
+		int temp = seq[i];
+		seq[i] = seq[j];
+		seq[j] = temp;
+	}
+	
 	static class BubbleSort extends SortingAlgo{
 		@Override
 		void sort(ArrayList<Integer> seq, int lo, int hi) {
@@ -36,6 +77,21 @@ abstract public class SortingAlgo {
 			}while(n > 0);
 		}
 		
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			int n = hi;
+			do{
+				int new_n = lo;
+				for(int i = lo+1; i < n; i++){
+					if(seq[i-1] > seq[i]){
+						swap(seq,i-1,i);
+						new_n = i;
+					}
+				}
+				n = new_n;
+			}while(n > lo);
+		}
+		
 	}
 	
 	static class SelectionSort extends SortingAlgo{
@@ -53,6 +109,19 @@ abstract public class SortingAlgo {
 				seq.set(min,temp);
 			}
 		}
+		
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			for(int i = lo; i < hi-1; i++){
+				int min = i;
+				for(int j = i+1; j < hi; j++){
+					if(seq[j] < seq[min]){
+						min = j;
+					}
+				}
+				swap(seq,i,min);
+			}
+		}
 	}
 	
 	static class InsertionSort extends SortingAlgo{
@@ -68,6 +137,19 @@ abstract public class SortingAlgo {
 				}
 			}
 		}
+		
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			for(int i = lo+1; i < hi; i++){
+				int val = seq[i];
+				int j = i;
+				while(j > lo && val < seq[j-1]){
+					seq[j] = seq[j-1];
+					j--;
+				}
+				seq[j] = val;
+			}
+		}
 	}
 	
 	static class QuickSort extends SortingAlgo{
@@ -101,6 +183,35 @@ abstract public class SortingAlgo {
 	    		sort(seq,i,hi);
 	    	}
 		}
+		
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			if(hi <= lo + 1){
+				//0 or 1 elements to sort, we're done
+				return;
+			}
+		    int i = lo, j = hi-1;
+		    int pivot = seq[lo];
+		    while (i <= j) {
+			    while (seq[i] < pivot) {
+			    	i++;
+			    }
+			 	while (seq[j] > pivot) {
+			 		j--;
+			 	}
+			 	if (i <= j) {
+			 		swap(seq,i,j);
+			        i++;
+			        j--;
+			 	}
+		    }
+	    	if (lo < j){
+	    		sort(seq,lo,j+1);
+	    	}
+	    	if (i < hi){
+	    		sort(seq,i,hi);
+	    	}
+		}
 	}
 	
 	static class MergeSort extends SortingAlgo{
@@ -142,6 +253,41 @@ abstract public class SortingAlgo {
 		    	seq.set(k,temp[k]);
 		    }
 		}
+		
+		int[] buffer = new int[0]; //reusable scratch buffer (grows as needed)
+		
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			if(buffer.length < hi-lo){
+				buffer = new int[hi-lo];
+			}
+			merge_sort(seq,lo,hi);
+		}
+		
+		void merge_sort(int[] seq, int lo, int hi){
+			if(hi - lo > 1){
+				int mid = (lo + hi) >>> 1;
+		    	merge_sort(seq,lo,mid);
+		    	merge_sort(seq,mid,hi);
+		    	merge(seq,lo,mid,hi);
+			}
+		}
+		
+		private void merge(int[] seq, int lo, int mid, int hi){
+			//copy the left run into the buffer, and merge both runs back into seq
+			int n_left = mid-lo;
+			System.arraycopy(seq, lo, buffer, 0, n_left);
+			int i = 0;
+			int j = mid;
+			int k = lo;
+			while(i < n_left && j < hi){
+				seq[k++] = buffer[i] <= seq[j]? buffer[i++] : seq[j++];
+			}
+			//remaining elements of the right run are in place already
+			while(i < n_left){
+				seq[k++] = buffer[i++];
+			}
+		}
 	}
 	
 	static class HeapSort extends SortingAlgo{
@@ -157,6 +303,36 @@ abstract public class SortingAlgo {
 				}
 			}
  		}
+		
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			//build a max-heap in seq[lo] ... seq[hi-1]
+			int n = hi-lo;
+			for(int i = n/2-1; i >= 0; i--){
+				sift_down(seq,lo,i,n);
+			}
+			//repeatedly move the max to the end
+			for(int end = n-1; end > 0; end--){
+				swap(seq,lo,lo+end);
+				sift_down(seq,lo,0,end);
+			}
+		}
+		
+		private static void sift_down(int[] seq, int lo, int i, int n){
+			int val = seq[lo+i];
+			int child;
+			while((child = 2*i+1) < n){
+				if(child+1 < n && seq[lo+child+1] > seq[lo+child]){
+					child++;
+				}
+				if(seq[lo+child] <= val){
+					break;
+				}
+				seq[lo+i] = seq[lo+child];
+				i = child;
+			}
+			seq[lo+i] = val;
+		}
 	}
 	
 	static class JavaSort extends SortingAlgo{
@@ -165,6 +341,12 @@ abstract public class SortingAlgo {
 		void sort(ArrayList<Integer> seq, int lo, int hi) {
 			Collections.sort(seq.subList(lo, hi));
  		}
+		
+		//dual-pivot quicksort (TimSort is only used for objects)
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			Arrays.sort(seq, lo, hi);
+ 		}
 	}
 	
 	//if we limit range, include count sort etc
@@ -240,8 +422,387 @@ abstract public class SortingAlgo {
 	        for (i = 0; i < seq.size(); i++)
 	            seq.set(i, output[i]);
 	    }
+	    
+	    int[] buffer = new int[0]; //reusable output buffer (grows as needed)
+	    final int[] counts = new int[256];
+	    
+	    // LSD radix sort, base 256, of the values relative to the min (i.e. non-negative, unsigned)
+	    @Override
+	    void sort(int[] seq, int lo, int hi){
+	    	int n = hi-lo;
+	    	if(n > 1){
+	    		if(buffer.length < n){
+	    			buffer = new int[n];
+	    		}
+	    		int min = seq[lo];
+	    		int max = seq[lo];
+	    		for(int i = lo+1; i < hi; i++){
+	    			min = Math.min(min, seq[i]);
+	    			max = Math.max(max, seq[i]);
+	    		}
+	    		//max-min may exceed Integer.MAX_VALUE, but fits in 32 bits unsigned
+	    		int bits = 64-Long.numberOfLeadingZeros((long)max-min);
+	    		lsd(seq,lo,hi,min,bits,buffer,0,counts);
+	    	}
+	    }
+	    
+	    /*
+	     * Sorts seq[lo] ... seq[hi-1] by the lowest bits of their values relative to min (i.e. of seq[i]-min, unsigned), 
+	     * using buffer[buf_off] ... buffer[buf_off+hi-lo-1] and counts (256) as workspace.
+	     */
+	    static void lsd(int[] seq, int lo, int hi, int min, int bits, int[] buffer, int buf_off, int[] counts){
+	    	int n = hi-lo;
+    		int[] src = seq;
+    		int src_off = lo;
+    		int[] dst = buffer;
+    		int dst_off = buf_off;
+    		for(int shift = 0; shift < bits; shift += 8){
+    			Arrays.fill(counts, 0);
+    			for(int i = 0; i < n; i++){
+    				counts[((src[src_off+i]-min) >>> shift) & 0xFF]++;
+    			}
+    			//prefix sum: counts[d] is the first position of digit d
+    			int pos = 0;
+    			for(int d = 0; d < 256; d++){
+    				int c = counts[d];
+    				counts[d] = pos;
+    				pos += c;
+    			}
+    			for(int i = 0; i < n; i++){
+    				int val = src[src_off+i];
+    				dst[dst_off + counts[((val-min) >>> shift) & 0xFF]++] = val;
+    			}
+    			int[] temp = src;
+    			src = dst;
+    			dst = temp;
+    			int temp_off = src_off;
+    			src_off = dst_off;
+    			dst_off = temp_off;
+    		}
+    		if(src != seq){
+    			System.arraycopy(src, src_off, seq, lo, n);
+    		}
+	    }
 	 
 	}
 	
+	/*
+	 * The algorithms below were added to the (extended) portfolio, they only implement the int[] path
+	 * (their list implementations sort an unboxed copy).
+	 */
+	
+	static class ParallelMergeSort extends SortingAlgo{
+		static final int THRESHOLD = 1 << 13; //ranges below this size are sorted sequentially
+		int[] buffer = new int[0]; //scratch buffer (grows as needed), tasks use disjoint ranges of it
+		
+		@Override
+		void sort(ArrayList<Integer> seq, int lo, int hi) {
+			sortUnboxed(seq,lo,hi);
+		}
+		
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			if(buffer.length < hi-lo){
+				buffer = new int[hi-lo];
+			}
+			ForkJoinPool.commonPool().invoke(new Task(seq,lo,hi,lo));
+		}
+		
+		private class Task extends RecursiveAction{
+			private static final long serialVersionUID = 1L;
+			final int[] seq;
+			final int lo;
+			final int hi;
+			final int base; //seq[i] uses buffer[i-base]
+			
+			Task(int[] seq, int lo, int hi, int base){
+				this.seq = seq;
+				this.lo = lo;
+				this.hi = hi;
+				this.base = base;
+			}
+			
+			@Override
+			protected void compute() {
+				if(hi-lo <= THRESHOLD){
+					merge_sort(lo,hi);
+				}else{
+					int mid = (lo + hi) >>> 1;
+					invokeAll(new Task(seq,lo,mid,base), new Task(seq,mid,hi,base));
+					merge(lo,mid,hi);
+				}
+			}
+			
+			private void merge_sort(int lo, int hi){
+				if(hi - lo > 1){
+					int mid = (lo + hi) >>> 1;
+					merge_sort(lo,mid);
+					merge_sort(mid,hi);
+					merge(lo,mid,hi);
+				}
+			}
+			
+			private void merge(int lo, int mid, int hi){
+				//copy the left run into the buffer, and merge both runs back into seq
+				int n_left = mid-lo;
+				int off = lo-base;
+				System.arraycopy(seq, lo, buffer, off, n_left);
+				int i = off;
+				int j = mid;
+				int k = lo;
+				while(i < off+n_left && j < hi){
+					seq[k++] = buffer[i] <= seq[j]? buffer[i++] : seq[j++];
+				}
+				while(i < off+n_left){
+					seq[k++] = buffer[i++];
+				}
+			}
+		}
+	}
+	
+	static class ParallelRadixSort extends SortingAlgo{
+		static final int THRESHOLD = 1 << 13; //buckets below this size are sorted sequentially
+		int[] buffer = new int[0]; //reusable buffer (grows as needed), tasks use disjoint ranges of it
+		
+		@Override
+		void sort(ArrayList<Integer> seq, int lo, int hi) {
+			sortUnboxed(seq,lo,hi);
+		}
+		
+		// MSD radix sort: distributes the values by their most significant byte (relative to the min),
+		// after which the 256 buckets are sorted in parallel (LSD, on the remaining bytes)
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			int n = hi-lo;
+			if(n <= 1){
+				return;
+			}
+			if(buffer.length < n){
+				buffer = new int[n];
+			}
+			int min = seq[lo];
+			int max = seq[lo];
+			for(int i = lo+1; i < hi; i++){
+				min = Math.min(min, seq[i]);
+				max = Math.max(max, seq[i]);
+			}
+			int bits = 64-Long.numberOfLeadingZeros((long)max-min);
+			if(bits == 0){
+				return; //all equal
+			}
+			int shift = ((bits-1)/8)*8; //the most significant byte
+			int[] starts = new int[257];
+			for(int i = lo; i < hi; i++){
+				starts[(((seq[i]-min) >>> shift) & 0xFF)+1]++;
+			}
+			for(int d = 0; d < 256; d++){
+				starts[d+1] += starts[d];
+			}
+			int[] pos = Arrays.copyOf(starts, 256);
+			for(int i = lo; i < hi; i++){
+				int val = seq[i];
+				buffer[pos[((val-min) >>> shift) & 0xFF]++] = val;
+			}
+			System.arraycopy(buffer, 0, seq, lo, n);
+			final int fmin = min;
+			ForkJoinPool.commonPool().invoke(new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected void compute() {
+					ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+					for(int d = 0; d < 256; d++){
+						int b_lo = starts[d];
+						int b_hi = starts[d+1];
+						if(b_hi-b_lo > 1){
+							if(b_hi-b_lo < THRESHOLD){
+								RadixSort.lsd(seq,lo+b_lo,lo+b_hi,fmin,shift,buffer,b_lo,new int[256]);
+							}else{
+								tasks.add(new RecursiveAction(){
+									private static final long serialVersionUID = 1L;
+									
+									@Override
+									protected void compute() {
+										RadixSort.lsd(seq,lo+b_lo,lo+b_hi,fmin,shift,buffer,b_lo,new int[256]);
+									}
+								});
+							}
+						}
+					}
+					invokeAll(tasks);
+				}
+			});
+		}
+	}
+	
+	static class ParallelJavaSort extends SortingAlgo{
+		//parallel sort-merge (fork-join), using dual-pivot quicksort for small ranges
+		@Override
+		void sort(ArrayList<Integer> seq, int lo, int hi) {
+			sortUnboxed(seq,lo,hi);
+		}
+		
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			Arrays.parallelSort(seq, lo, hi);
+		}
+	}
+	
+	static class IntroSort extends SortingAlgo{
+		static final int INSERTION_THRESHOLD = 32; //ranges below this size are sorted using insertion sort
+		final InsertionSort insertion = new InsertionSort();
+		final HeapSort heap = new HeapSort();
+		
+		@Override
+		void sort(ArrayList<Integer> seq, int lo, int hi) {
+			sortUnboxed(seq,lo,hi);
+		}
+		
+		// dual-pivot quicksort, falling back to heap sort if the recursion gets too deep (2 log2(n))
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			int n = hi-lo;
+			if(n > 1){
+				intro_sort(seq,lo,hi,2*(32-Integer.numberOfLeadingZeros(n)));
+			}
+		}
+		
+		private void intro_sort(int[] seq, int lo, int hi, int depth){
+			while(hi-lo >= INSERTION_THRESHOLD){
+				if(depth-- == 0){
+					heap.sort(seq,lo,hi);
+					return;
+				}
+				//pivots: the 1st and 2nd tercile (p1 <= p2)
+				int third = (hi-lo)/3;
+				swap(seq,lo,lo+third);
+				swap(seq,hi-1,hi-1-third);
+				if(seq[lo] > seq[hi-1]){
+					swap(seq,lo,hi-1);
+				}
+				int p1 = seq[lo];
+				int p2 = seq[hi-1];
+				//partition into < p1 [lo+1,lt), p1 <= .. <= p2 [lt,i), > p2 [gt+1,hi-1)
+				int lt = lo+1;
+				int gt = hi-2;
+				int i = lt;
+				while(i <= gt){
+					if(seq[i] < p1){
+						swap(seq,i++,lt++);
+					}else if(seq[i] > p2){
+						swap(seq,i,gt--);
+					}else{
+						i++;
+					}
+				}
+				swap(seq,lo,--lt);
+				swap(seq,hi-1,++gt);
+				//recurse on the two smallest parts, loop on the largest
+				int[][] parts = {{lo,lt},{lt+1,gt},{gt+1,hi}};
+				if(p1 == p2){
+					parts[1][1] = parts[1][0]; //all equal to the pivots
+				}
+				int largest = 0;
+				for(int p = 1; p < 3; p++){
+					if(parts[p][1]-parts[p][0] > parts[largest][1]-parts[largest][0]){
+						largest = p;
+					}
+				}
+				for(int p = 0; p < 3; p++){
+					if(p != largest){
+						intro_sort(seq,parts[p][0],parts[p][1],depth);
+					}
+				}
+				lo = parts[largest][0];
+				hi = parts[largest][1];
+			}
+			insertion.sort(seq,lo,hi);
+		}
+	}
+	
+	static class AdaptiveMergeSort extends SortingAlgo{
+		static final int MIN_RUN = 32; //shorter runs are extended using insertion sort
+		final InsertionSort insertion = new InsertionSort();
+		int[] buffer = new int[0]; //reusable scratch buffer (grows as needed)
+		int[] runs = new int[0]; //run boundaries
+		
+		@Override
+		void sort(ArrayList<Integer> seq, int lo, int hi) {
+			sortUnboxed(seq,lo,hi);
+		}
+		
+		// natural (run-aware) merge sort: identifies the runs already present in the input (reversing descending ones)
+		// and merges them bottom-up, i.e. presorted inputs are sorted in (close to) linear time
+		@Override
+		void sort(int[] seq, int lo, int hi) {
+			int n = hi-lo;
+			if(n <= 1){
+				return;
+			}
+			if(buffer.length < n){
+				buffer = new int[n];
+			}
+			if(runs.length < n/MIN_RUN+2){
+				runs = new int[n/MIN_RUN+2];
+			}
+			//identify the runs
+			int n_runs = 0;
+			int i = lo;
+			while(i < hi){
+				int start = i++;
+				if(i < hi){
+					if(seq[i] < seq[i-1]){
+						//strictly descending (keeps the sort stable)
+						while(i < hi && seq[i] < seq[i-1]){
+							i++;
+						}
+						for(int a = start, b = i-1; a < b; a++, b--){
+							swap(seq,a,b);
+						}
+					}else{
+						while(i < hi && seq[i] >= seq[i-1]){
+							i++;
+						}
+					}
+				}
+				if(i-start < MIN_RUN && i < hi){
+					i = Math.min(start+MIN_RUN, hi);
+					insertion.sort(seq,start,i);
+				}
+				runs[n_runs++] = start;
+			}
+			runs[n_runs] = hi;
+			//merge adjacent runs, until a single run remains
+			while(n_runs > 1){
+				int merged = 0;
+				for(int r = 0; r < n_runs; r += 2){
+					if(r+1 < n_runs){
+						merge(seq,runs[r],runs[r+1],runs[r+2],lo);
+					}
+					runs[merged++] = runs[r];
+				}
+				runs[merged] = hi;
+				n_runs = merged;
+			}
+		}
+		
+		private void merge(int[] seq, int lo, int mid, int hi, int base){
+			if(seq[mid-1] <= seq[mid]){
+				return; //already in order
+			}
+			int n_left = mid-lo;
+			int off = lo-base;
+			System.arraycopy(seq, lo, buffer, off, n_left);
+			int i = off;
+			int j = mid;
+			int k = lo;
+			while(i < off+n_left && j < hi){
+				seq[k++] = buffer[i] <= seq[j]? buffer[i++] : seq[j++];
+			}
+			while(i < off+n_left){
+				seq[k++] = buffer[i++];
+			}
+		}
+	}
 	
 }
@@ -0,0 +1,64 @@
+package is4ape.bench.sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A simple benchmark comparing the ArrayList<Integer> and int[] implementations of each sorting algorithm (see InputSort.EXTENDED),
+ * on random sequences. It also verifies that both sort correctly.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class SortingBenchmark {
+
+	/**
+	 * @param args: OPTIONAL, in order:
+	 *     args[0]: the length of the sequences (default 5000)
+	 *     args[1]: the number of sequences (default 20)
+	 */
+	public static void main(String[] args) {
+		int length = args.length > 0? Integer.parseInt(args[0]) : 5000;
+		int reps = args.length > 1? Integer.parseInt(args[1]) : 20;
+		Random rng = new Random(0);
+		int[][] seqs = new int[reps][length];
+		for(int r = 0; r < reps; r++){
+			for(int i = 0; i < length; i++){
+				//alternate between a small and the largest range of values in sort_data
+				seqs[r][i] = r % 2 == 0? rng.nextInt(100) : rng.nextInt(2000000001)-1000000000;
+			}
+		}
+		for(SortingAlgo algo : InputSort.EXTENDED){
+			long t_list = 0;
+			long t_array = 0;
+			int errors_list = 0;
+			int errors_array = 0;
+			for(int[] seq : seqs){
+				int[] sorted = seq.clone();
+				Arrays.sort(sorted);
+				ArrayList<Integer> list = new ArrayList<Integer>(length);
+				for(int v : seq){
+					list.add(v);
+				}
+				long start = System.nanoTime();
+				algo.sort(list);
+				t_list += System.nanoTime()-start;
+				int[] array = seq.clone();
+				start = System.nanoTime();
+				algo.sort(array);
+				t_array += System.nanoTime()-start;
+				for(int i = 0; i < length; i++){
+					if(list.get(i) != sorted[i]){
+						errors_list++;
+					}
+					if(array[i] != sorted[i]){
+						errors_array++;
+					}
+				}
+			}
+			System.out.println(algo+": list "+t_list/1000000+"ms, int[] "+t_array/1000000+"ms, errors: "+errors_list+" (list) "+errors_array+" (int[])");
+		}
+	}
+
+}
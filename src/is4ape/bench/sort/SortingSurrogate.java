@@ -37,7 +37,7 @@ public class SortingSurrogate {
 		
 	}
 	
-	private double scalenorm(double val, double min, double max){
+	private static double scalenorm(double val, double min, double max){
 		double shift = (1-min);
 		val = val + shift;
 		double shiftmax = max + shift;
@@ -47,6 +47,25 @@ public class SortingSurrogate {
 	}
 	
 	public Features getFeatures(int index){
+		return getFeatures(inputsize,inputrange,inputorder,inputeqs);
+	}
+	
+	/**
+	 * Computes the features of a given sequence (in a single pass), see SequenceGenerator.features.
+	 */
+	static Features getFeatures(int[] seq){
+		return getFeatures(seq,0,seq.length);
+	}
+	
+	/**
+	 * Computes the features of seq[lo] ... seq[hi-1].
+	 */
+	static Features getFeatures(int[] seq, int lo, int hi){
+		double[] raw = SequenceGenerator.features(seq,lo,hi);
+		return getFeatures((int)raw[0],(long)raw[1],raw[2],raw[3]);
+	}
+	
+	static Features getFeatures(int inputsize, long inputrange, double inputorder, double inputeqs){
 		return new Features(
 				scalenorm(inputsize,2,200000),
 				scalenorm(inputrange,-Math.pow(10, 9),Math.pow(10, 9)),
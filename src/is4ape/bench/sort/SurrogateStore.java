@@ -0,0 +1,178 @@
+package is4ape.bench.sort;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import is4ape.bench.data.DataSource;
+
+/**
+ * A memory-resident surrogate for all sorting instances in sort_data (or sort_data.zip, see DataSource).
+ *
+ * All instances are loaded once (in parallel), after which an evaluation reduces to an array lookup and a random index,
+ * rather than re-parsing the instance file (see SortingSurrogate). The data is stored in a compact primitive layout:
+ *   features: the (normalized) features of instance i are row rows[i] of a shared feature matrix (see FeatureMatrix)
+ *   observations: the observations of algorithm a on instance i are obs[offsets[i*n_algos+a] ... offsets[i*n_algos+a+1]-1]
+ *
+ * @author Steven Adriaensen
+ *
+ */
+class SurrogateStore {
+	static final int N_INSTANCES = 15000;
+	static final int N_FEATURES = 4;
+	static final String FOLDER = "sort_data";
+	static final String ARCHIVE = "sort_data.zip";
+
+	final int n; //# instances
+	final String[] algos; //names of the algorithms, in order
+	final FeatureMatrix features;
+	final int[] rows;
+	final int[] offsets;
+	final double[] obs;
+
+	private static class Holder{
+		static final SurrogateStore INSTANCE = load();
+
+		/*
+		 * Loads all instances, closing the data source once loaded.
+		 */
+		private static SurrogateStore load(){
+			try(DataSource data = DataSource.find(FOLDER,ARCHIVE)){
+				if(data == null){
+					throw new IllegalStateException("sort data not found: "+FOLDER+" or "+ARCHIVE);
+				}
+				return new SurrogateStore(data,N_INSTANCES,InputSort.algos,InputSort.features);
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * @return true iff the sort data is available (without loading it).
+	 */
+	static boolean available(){
+		return DataSource.available(FOLDER,ARCHIVE);
+	}
+
+	/**
+	 * Returns the store for sort_data (and the algorithms in InputSort), loading it on first use.
+	 */
+	static SurrogateStore get(){
+		return Holder.INSTANCE;
+	}
+
+	/*
+	 * The data of a single instance, as parsed from its file.
+	 */
+	private static class Instance{
+		double[] features;
+		double[][] obs; //per algorithm
+	}
+
+	/**
+	 * Loads instances 0 ... n-1 (i.e. files 0.txt ... (n-1).txt) from data (in parallel),
+	 * adding their features to a given feature matrix.
+	 */
+	SurrogateStore(DataSource data, int n, List<SortingAlgo> algos, FeatureMatrix features){
+		this.n = n;
+		this.algos = new String[algos.size()];
+		for(int a = 0; a < this.algos.length; a++){
+			this.algos[a] = algos.get(a).toString();
+		}
+		Instance[] instances = IntStream.range(0, n).parallel().mapToObj(i -> parse(data,i+".txt")).toArray(Instance[]::new);
+		int n_algos = this.algos.length;
+		this.features = features;
+		rows = new int[n];
+		offsets = new int[n*n_algos+1];
+		int size = 0;
+		for(int i = 0; i < n; i++){
+			rows[i] = features.intern(instances[i].features);
+			for(int a = 0; a < n_algos; a++){
+				offsets[i*n_algos+a] = size;
+				size += instances[i].obs[a].length;
+			}
+		}
+		offsets[n*n_algos] = size;
+		obs = new double[size];
+		for(int i = 0; i < n; i++){
+			for(int a = 0; a < n_algos; a++){
+				double[] vals = instances[i].obs[a];
+				System.arraycopy(vals, 0, obs, offsets[i*n_algos+a], vals.length);
+			}
+		}
+	}
+
+	private Instance parse(DataSource data, String file){
+		Instance instance = new Instance();
+		instance.features = new double[N_FEATURES];
+		instance.obs = new double[algos.length][0];
+		try (BufferedReader br = data.reader(file)) {
+			String line = br.readLine();
+			String[] tokens = line.split(",");
+			instance.features = SortingSurrogate.getFeatures(
+					Integer.parseInt(tokens[1]),
+					Long.parseLong(tokens[2]),
+					Double.parseDouble(tokens[3]),
+					Double.parseDouble(tokens[4])).toVector();
+			while ((line = br.readLine()) != null) {
+				int sep = line.indexOf(',');
+				String algo = sep < 0? line : line.substring(0, sep);
+				for(int a = 0; a < algos.length; a++){
+					if(algos[a].equals(algo)){
+						instance.obs[a] = sep < 0? new double[0] : parseValues(line, sep+1);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return instance;
+	}
+
+	/*
+	 * Parses the comma separated values in line, starting at a given position.
+	 */
+	private static double[] parseValues(String line, int start){
+		double[] vals = new double[16];
+		int n_vals = 0;
+		while(start <= line.length()){
+			int end = line.indexOf(',', start);
+			if(end < 0){
+				end = line.length();
+			}
+			if(end > start){ //skip empty values (e.g. a trailing comma)
+				if(n_vals == vals.length){
+					vals = Arrays.copyOf(vals, 2*n_vals);
+				}
+				vals[n_vals++] = Double.parseDouble(line.substring(start, end));
+			}
+			start = end+1;
+		}
+		return Arrays.copyOf(vals, n_vals);
+	}
+
+	/**
+	 * @return the row of the (normalized) features of instance i in the feature matrix
+	 */
+	int row(int i){
+		return rows[i];
+	}
+
+	/**
+	 * @return a randomly chosen observation of the performance of algorithm a on instance i
+	 */
+	double getPerformanceObservation(int i, int a, Random rng){
+		int off = offsets[i*algos.length+a];
+		int count = offsets[i*algos.length+a+1]-off;
+		if(count == 0){
+			throw new IllegalStateException("No observations of "+algos[a]+" on instance "+i);
+		}
+		return obs[off+rng.nextInt(count)];
+	}
+
+}
@@ -0,0 +1,266 @@
+package is4ape.pm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An approximate view on an importance sampling model.
+ *
+ * Rather than looping over all of E', estimates are computed from a stratified subsample of E',
+ * stratified by the design used to generate the execution and (the order of magnitude of) its q-value.
+ * Strata too small to be allocated 2 executions in the initial subsample are pooled into a single stratum,
+ * such that the number of strata (and thus the subsample size) does not grow with |Theta'|.
+ * The subsample is grown (doubling its size) until the standard error of the performance estimate is
+ * below a given tolerance, or all of E' has been used (i.e. the estimate is exact).
+ * The variance due to subsampling is added to the uncertainty reported by unc.
+ * Estimates are memoized per design, until E' changes.
+ *
+ * Updates are passed on to the underlying model.
+ *
+ * @author Steven Adriaensen
+ *
+ * @param <DesignType> The type of the design
+ * @param <ExecutionType> The type of the execution
+ */
+public class ApproximateISModel<DesignType,ExecutionType> implements PerformanceModel<DesignType,ExecutionType>{
+	static final int MIN_SAMPLE = 256; //size of the initial subsample
+
+	final ImportanceSamplingModel<DesignType,ExecutionType> M; //the exact model
+	final double tol; //tolerance on the standard error of the performance estimate
+	final Random rng;
+
+	//stratification of E' (rebuilt lazily, after updates)
+	int[][] strata; //for each stratum, its members (indices in E'), in random order
+	int n_strata_built = -1; //|E'| at the time the stratification was built
+	Map<DesignType,double[]> estimates = new HashMap<DesignType,double[]>(); //memoized estimates (see estimate)
+
+	/**
+	 * Creates an approximate view on a given IS model.
+	 * @param M: The underlying (exact) IS model
+	 * @param tol: The desired standard error of the performance estimates
+	 * @param rng: The random generator used to subsample E'
+	 */
+	public ApproximateISModel(ImportanceSamplingModel<DesignType,ExecutionType> M, double tol, Random rng){
+		this.M = M;
+		this.tol = tol;
+		this.rng = rng;
+	}
+
+	@Override
+	public void update(DesignType theta, ExecutionType exec) {
+		M.update(theta, exec);
+	}
+
+	@Override
+	public void updateAll(List<DesignType> thetas, List<ExecutionType> execs) {
+		M.updateAll(thetas, execs);
+	}
+
+	/*
+	 * Stratifies E' by generating design and the binary exponent of q,
+	 * pooling all strata with fewer than 2*|E'|/MIN_SAMPLE members (i.e. at most MIN_SAMPLE/2 strata, and the pool, remain).
+	 * The pool is a stratum like any other (sampled at random), i.e. the variance estimate remains valid,
+	 * be it larger, as the pool is less homogeneous.
+	 */
+	private void stratify(){
+		if(n_strata_built == M.execs.size()){
+			return;
+		}
+		Map<DesignType,Integer> ids = new HashMap<DesignType,Integer>();
+		Map<Long,List<Integer>> members = new HashMap<Long,List<Integer>>();
+		for(int i = 0; i < M.execs.size(); i++){
+			DesignType gen = M.gens.get(i);
+			Integer id = ids.get(gen);
+			if(id == null){
+				id = ids.size();
+				ids.put(gen, id);
+			}
+			long key = ((long)id << 16) + Math.getExponent(M.qs.get(i)) + Short.MAX_VALUE;
+			List<Integer> stratum = members.get(key);
+			if(stratum == null){
+				stratum = new ArrayList<Integer>();
+				members.put(key, stratum);
+			}
+			stratum.add(i);
+		}
+		double min_size = 2.0*M.execs.size()/MIN_SAMPLE;
+		List<int[]> merged = new ArrayList<int[]>();
+		List<Integer> pool = new ArrayList<Integer>();
+		for(List<Integer> stratum : members.values()){
+			if(stratum.size() < min_size){
+				pool.addAll(stratum);
+			}else{
+				merged.add(toArray(stratum));
+			}
+		}
+		if(!pool.isEmpty()){
+			merged.add(toArray(pool));
+		}
+		strata = new int[merged.size()][];
+		int h = 0;
+		for(int[] s : merged){
+			//shuffle (Fisher-Yates), such that any prefix is a random sample
+			for(int j = s.length-1; j > 0; j--){
+				int k = rng.nextInt(j+1);
+				int temp = s[j];
+				s[j] = s[k];
+				s[k] = temp;
+			}
+			strata[h++] = s;
+		}
+		n_strata_built = M.execs.size();
+		estimates.clear();
+	}
+
+	private static int[] toArray(List<Integer> stratum){
+		int[] s = new int[stratum.size()];
+		for(int j = 0; j < s.length; j++){
+			s[j] = stratum.get(j);
+		}
+		return s;
+	}
+
+	/*
+	 * Returns the (memoized) stratified estimates for a given design, i.e. {o, var_o, norm, norm2},
+	 * where var_o is the variance due to subsampling.
+	 */
+	double[] estimate(DesignType theta){
+		stratify();
+		double[] est = estimates.get(theta);
+		if(est == null){
+			est = compute(theta);
+			estimates.put(theta, est);
+		}
+		return est;
+	}
+
+	private double[] compute(DesignType theta){
+		int N = M.execs.size();
+		int H = strata.length;
+		//per stratum: # sampled, sum w, sum wp, sum w^2, sum w^2p, sum w^2p^2
+		int[] taken = new int[H];
+		double[][] sums = new double[H][5];
+		int n = Math.min(MIN_SAMPLE, N);
+		double o = 0, var = 0, norm = 0, norm2 = 0;
+		while(true){
+			boolean exact = true;
+			for(int h = 0; h < H; h++){
+				int[] s = strata[h];
+				int n_h = (int) Math.min(s.length, Math.max(2, Math.ceil((double)n*s.length/N)));
+				for(int j = taken[h]; j < n_h; j++){
+					double w = M.weight(theta,s[j]);
+					double wp = w*M.p.apply(M.execs.get(s[j]));
+					sums[h][0] += w;
+					sums[h][1] += wp;
+					sums[h][2] += w*w;
+					sums[h][3] += w*wp;
+					sums[h][4] += wp*wp;
+				}
+				taken[h] = n_h;
+				exact &= n_h == s.length;
+			}
+			//combine (expand sample to population totals)
+			double A = 0;
+			norm = 0;
+			norm2 = 0;
+			for(int h = 0; h < H; h++){
+				double scale = (double)strata[h].length/taken[h];
+				norm += scale*sums[h][0];
+				A += scale*sums[h][1];
+				norm2 += scale*sums[h][2];
+			}
+			o = norm == 0? A : A/norm;
+			//linearized variance of the ratio estimator, residuals r = w(p-o)/norm
+			var = 0;
+			if(norm != 0){
+				for(int h = 0; h < H; h++){
+					int N_h = strata[h].length;
+					int n_h = taken[h];
+					if(n_h < N_h && n_h > 1){
+						double sum_r = (sums[h][1] - o*sums[h][0])/norm;
+						double sum_r2 = (sums[h][4] - 2*o*sums[h][3] + o*o*sums[h][2])/(norm*norm);
+						double s2 = Math.max(0, (sum_r2 - sum_r*sum_r/n_h)/(n_h-1));
+						var += (double)N_h*N_h*(1-(double)n_h/N_h)*s2/n_h;
+					}
+				}
+			}
+			if(exact || Math.sqrt(var) <= tol){
+				break;
+			}
+			n *= 2;
+		}
+		return new double[]{o,var,norm,norm2};
+	}
+
+	@Override
+	public double o(DesignType theta) {
+		if(M.execs.isEmpty()){
+			return 0;
+		}
+		return estimate(theta)[0];
+	}
+
+	/*
+	 * The uncertainty of the approximate estimate, i.e. including the variance due to subsampling.
+	 */
+	@Override
+	public double unc(DesignType theta) {
+		if(M.execs.isEmpty()){
+			return Double.POSITIVE_INFINITY;
+		}
+		double[] est = estimate(theta);
+		double n = n(est[2],est[3]);
+		if(n == 0){
+			return Double.POSITIVE_INFINITY;
+		}
+		double unc = M.STD()/Math.sqrt(n);
+		return Math.sqrt(unc*unc + est[1]);
+	}
+
+	@Override
+	public double n(DesignType theta) {
+		if(M.execs.isEmpty()){
+			return 0;
+		}
+		double[] est = estimate(theta);
+		return n(est[2],est[3]);
+	}
+
+	private double n(double norm, double norm2){
+		if(norm == 0){
+			return 0;
+		}
+		double neff = (norm*norm)/norm2;
+		return neff*Math.min(norm, 1.0/norm);
+	}
+
+	/*
+	 * Similarity is estimated on a stratified subsample of (at least) MIN_SAMPLE executions.
+	 */
+	@Override
+	public double sim(DesignType theta1, DesignType theta2) {
+		if(n(theta1) == 0 || n(theta2) == 0){
+			return 0;
+		}
+		int N = M.execs.size();
+		double sc = 0;
+		double norm1 = 0;
+		double norm2 = 0;
+		for(int[] s : strata){
+			int n_h = (int) Math.min(s.length, Math.max(2, Math.ceil((double)MIN_SAMPLE*s.length/N)));
+			double scale = (double)s.length/n_h;
+			for(int j = 0; j < n_h; j++){
+				double w1 = M.weight(theta1,s[j]);
+				double w2 = M.weight(theta2,s[j]);
+				norm1 += scale*w1;
+				norm2 += scale*w2;
+				sc += scale*Math.min(w1,w2);
+			}
+		}
+		return sc/Math.max(norm1, norm2);
+	}
+
+}
@@ -0,0 +1,19 @@
+package is4ape.pm;
+
+import java.util.List;
+
+/**
+ * Computes the likelihood (or log-likelihood) of generating each of a list of executions using a given design at once,
+ * e.g. by looking them up in a table of the design (see ImportanceSamplingModel).
+ *
+ * @author Steven Adriaensen
+ *
+ * @param <DesignType> The type of the design
+ * @param <ExecutionType> The type of the execution
+ */
+public interface BatchLikelihood<DesignType,ExecutionType> {
+	/**
+	 * Computes out[i] = pr(theta,execs.get(i)), for all i < execs.size().
+	 */
+	void apply(DesignType theta, List<ExecutionType> execs, double[] out);
+}
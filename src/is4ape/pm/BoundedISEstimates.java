@@ -0,0 +1,190 @@
+package is4ape.pm;
+
+/**
+ * Provides incremental (block-wise) IS estimates of o, n and sim (w.r.t. a reference design),
+ * together with bounds on their final (exact) values, given the executions processed so far.
+ *
+ * This allows clients to abandon the computation for designs whose estimates are bound to be uninteresting.
+ * Bounds assume that pr is a probability (mass), i.e. pr(theta,e) <= 1,
+ * such that the remaining (unprocessed) weight of any execution e is at most 1/q(e).
+ *
+ * Estimates are only valid as long as the underlying model is not updated.
+ *
+ * @author Steven Adriaensen
+ *
+ * @param <DesignType> The type of the design
+ * @param <ExecutionType> The type of the execution
+ */
+public class BoundedISEstimates<DesignType,ExecutionType> {
+	final ImportanceSamplingModel<DesignType,ExecutionType> M;
+	final DesignType theta_ref; //design w.r.t. which similarity is estimated
+
+	//suffix sums of 1/q and 1/q^2, i.e. bounds on the weight (squared) of the unprocessed executions
+	final double[] rem_w;
+	final double[] rem_w2;
+	//range of p over E'
+	double p_min;
+	double p_max;
+
+	/**
+	 * Prepares bounded estimation on a given IS model.
+	 * @param M: The IS model
+	 * @param theta_ref: The design w.r.t. which similarity is to be estimated
+	 */
+	public BoundedISEstimates(ImportanceSamplingModel<DesignType,ExecutionType> M, DesignType theta_ref){
+		this.M = M;
+		this.theta_ref = theta_ref;
+		int size = M.execs.size();
+		rem_w = new double[size+1];
+		rem_w2 = new double[size+1];
+		p_min = Double.POSITIVE_INFINITY;
+		p_max = Double.NEGATIVE_INFINITY;
+		for(int i = size-1; i >= 0; i--){
+			double q = M.qs.get(i);
+			rem_w[i] = rem_w[i+1] + 1/q;
+			rem_w2[i] = rem_w2[i+1] + 1/(q*q);
+			double p = M.p.apply(M.execs.get(i));
+			p_min = Math.min(p_min, p);
+			p_max = Math.max(p_max, p);
+		}
+	}
+
+	/*
+	 * Standard deviation of p over E' (see ImportanceSamplingModel.unc)
+	 */
+	public double STD(){
+		return M.STD();
+	}
+
+	/**
+	 * Starts the bounded estimation for a given design.
+	 */
+	public Candidate start(DesignType theta){
+		return new Candidate(theta);
+	}
+
+	/**
+	 * The running estimates for a single design.
+	 */
+	public class Candidate{
+		public final DesignType theta;
+		int next; //index of the next execution to process
+		//running sums
+		double mean; //sum of weighted observations
+		double norm; //sum of weights
+		double norm2; //sum of squared weights
+		double norm_ref; //sum of weights of theta_ref
+		double sc; //sum of overlap in weights with theta_ref
+
+		Candidate(DesignType theta){
+			this.theta = theta;
+		}
+
+		/**
+		 * Processes (at most) the next block_size executions.
+		 */
+		public void advance(int block_size){
+			int end = (int) Math.min(M.execs.size(), (long) next + block_size);
+			for(int i = next; i < end; i++){
+				double w = M.weight(theta,i);
+				double w_ref = M.weight(theta_ref,i);
+				norm += w;
+				norm2 += w*w;
+				mean += w*M.p.apply(M.execs.get(i));
+				norm_ref += w_ref;
+				sc += Math.min(w,w_ref);
+			}
+			next = end;
+		}
+
+		public boolean isComplete(){
+			return next == M.execs.size();
+		}
+
+		/*
+		 * Lower bound on o(theta)
+		 */
+		public double o_lo(){
+			double R = rem_w[next];
+			if(R == 0){
+				return o();
+			}
+			double lo = norm == 0? Math.min(0, p_min) : mean/norm;
+			return Math.min(lo, (mean + R*p_min)/(norm + R));
+		}
+
+		/*
+		 * Upper bound on o(theta)
+		 */
+		public double o_hi(){
+			double R = rem_w[next];
+			if(R == 0){
+				return o();
+			}
+			double hi = norm == 0? Math.max(0, p_max) : mean/norm;
+			return Math.max(hi, (mean + R*p_max)/(norm + R));
+		}
+
+		/*
+		 * Lower bound on n(theta)
+		 */
+		public double n_lo(){
+			if(norm == 0){
+				return 0;
+			}
+			double neff = (norm*norm)/(norm2+rem_w2[next]);
+			return neff*Math.min(norm, 1.0/(norm+rem_w[next]));
+		}
+
+		/*
+		 * Upper bound on n(theta)
+		 */
+		public double n_hi(){
+			double R = rem_w[next];
+			if(norm2 == 0){
+				return R == 0? 0 : Double.POSITIVE_INFINITY;
+			}
+			return (norm+R)*(norm+R)/norm2;
+		}
+
+		/*
+		 * Lower bound on sim(theta_ref, theta)
+		 */
+		public double sim_lo(){
+			if(sc == 0){
+				return 0;
+			}
+			double R = rem_w[next];
+			return sc/Math.max(norm+R, norm_ref+R);
+		}
+
+		/*
+		 * o(theta), once complete
+		 */
+		public double o(){
+			return norm == 0? mean : mean/norm;
+		}
+
+		/*
+		 * n(theta), once complete
+		 */
+		public double n(){
+			if(norm == 0){
+				return 0;
+			}
+			double neff = (norm*norm)/norm2;
+			return neff*Math.min(norm, 1.0/norm);
+		}
+
+		/*
+		 * sim(theta_ref, theta), once complete
+		 */
+		public double sim(){
+			if(norm == 0 || norm_ref == 0){
+				return 0;
+			}
+			return sc/Math.max(norm, norm_ref);
+		}
+	}
+
+}
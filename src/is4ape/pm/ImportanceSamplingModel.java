@@ -1,7 +1,9 @@
 package is4ape.pm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,6 +13,11 @@ import java.util.function.Function;
 /**
  * This class implements all importance sampling estimators.
  * Its implementation is fully generic w.r.t. the type (i.e. representation) of designs and executions.
+ *
+ * Optionally, the log-likelihood (log_pr) can be provided. The IS weight of an execution, i.e. pr(theta,e)/Q'(e),
+ * is then computed from log-likelihoods (as exp(log pr(theta,e) - log Q'(e))) whenever pr(theta,e) or Q'(e) underflow
+ * (i.e. drop below Double.MIN_NORMAL), e.g. for long executions, such that their weights are not lost (or NaN).
+ * Likelihoods of a design for all of E' can also be computed at once (batch_pr, batch_log_pr), e.g. using a table lookup per execution.
  * 
  * @author Steven Adriaensen
  *
@@ -18,16 +25,27 @@ import java.util.function.Function;
  * @param <ExecutionType> The type of the execution
  */
 public class ImportanceSamplingModel<DesignType,ExecutionType> implements PerformanceModel<DesignType,ExecutionType>{
-	final BiFunction<DesignType,ExecutionType,Double> pr; //The function describing the relationship between design and execution space
-	final Function<ExecutionType,Double> p; //The notion of 'desirability of an execution' used
+	protected final BiFunction<DesignType,ExecutionType,Double> pr; //The function describing the relationship between design and execution space
+	protected final Function<ExecutionType,Double> p; //The notion of 'desirability of an execution' used
+	protected final BiFunction<DesignType,ExecutionType,Double> log_pr; //The log of pr (null: likelihoods are assumed not to underflow)
+	protected final BatchLikelihood<DesignType,ExecutionType> batch_pr; //pr for all of E' at once (null: pr per execution)
+	protected final BatchLikelihood<DesignType,ExecutionType> batch_log_pr; //log_pr for all of E' at once (null: log_pr per execution)
 	
-	List<ExecutionType> execs; //E': list of executions generated
-	List<Double> qs; //Q'(e) for all e in E' (to avoid re-computing these)
-	Map<DesignType,Integer> Theta_used; //\Theta': the mixture of configurations used to generate E'
+	protected List<ExecutionType> execs; //E': list of executions generated
+	protected List<DesignType> gens; //the design used to generate each e in E'
+	protected List<Double> qs; //Q'(e) for all e in E' (to avoid re-computing these)
+	protected Map<DesignType,Integer> Theta_used; //\Theta': the mixture of configurations used to generate E'
 	
 	//used to compute variability p
-	double sum_p;
-	double sum_p2;
+	protected double sum_p;
+	protected double sum_p2;
+	
+	//log Q'(e), for the executions in E' whose Q' underflows (NaN: not computed yet)
+	private double[] log_qs = new double[0];
+	//scratch: the weights of (up to) two designs for all executions in E'
+	private double[] ws1 = new double[0];
+	private double[] ws2 = new double[0];
+	private double[] log_ws = new double[0];
 		
 	/**
 	 * Creates an instance of the IS estimator.
@@ -35,10 +53,34 @@ public class ImportanceSamplingModel<DesignType,ExecutionType> implements Perfor
 	 * @param pr The function to be used to compute the likelihood of generating an execution using a given design
 	 */
 	public ImportanceSamplingModel(Function<ExecutionType,Double> p,BiFunction<DesignType,ExecutionType,Double> pr){
+		this(p,pr,null);
+	}
+	
+	/**
+	 * Creates an instance of the IS estimator, using log-likelihoods for executions whose likelihoods underflow.
+	 * @param log_pr: The log of pr (null: likelihoods do not underflow)
+	 */
+	public ImportanceSamplingModel(Function<ExecutionType,Double> p,BiFunction<DesignType,ExecutionType,Double> pr,
+			BiFunction<DesignType,ExecutionType,Double> log_pr){
+		this(p,pr,log_pr,null,null);
+	}
+	
+	/**
+	 * Creates an instance of the IS estimator, computing the (log-)likelihoods of a design for all of E' at once.
+	 * @param batch_pr: Computes pr for a list of executions (null: use pr per execution)
+	 * @param batch_log_pr: Computes log_pr for a list of executions (null: use log_pr per execution)
+	 */
+	public ImportanceSamplingModel(Function<ExecutionType,Double> p,BiFunction<DesignType,ExecutionType,Double> pr,
+			BiFunction<DesignType,ExecutionType,Double> log_pr,
+			BatchLikelihood<DesignType,ExecutionType> batch_pr, BatchLikelihood<DesignType,ExecutionType> batch_log_pr){
 		this.p = p;
 		this.pr = pr;
+		this.log_pr = log_pr;
+		this.batch_pr = batch_pr;
+		this.batch_log_pr = batch_log_pr;
 		
 		execs = new ArrayList<ExecutionType>();
+		gens = new ArrayList<DesignType>();
 		Theta_used = new HashMap<DesignType,Integer>();
 		qs = new ArrayList<Double>();
 		sum_p = 0;
@@ -58,6 +100,7 @@ public class ImportanceSamplingModel<DesignType,ExecutionType> implements Perfor
 			qs.set(i,qs.get(i)+pr.apply(theta, execs.get(i)));
 		}
 		execs.add(exec);
+		gens.add(theta);
 		if(Theta_used.containsKey(theta)){
 			Theta_used.put(theta,Theta_used.get(theta) + 1);
 		}else{
@@ -70,22 +113,190 @@ public class ImportanceSamplingModel<DesignType,ExecutionType> implements Perfor
 			qNew += Theta_used.get(used_pi)*pr.apply(used_pi,exec);
 		}
 		qs.add(qNew);
+		invalidate();
 	}
 	
-	private double STD(){
-		return Math.sqrt(sum_p2/execs.size() - (sum_p*sum_p)/(execs.size()*execs.size()));
+	/*
+	 * Updates the model after a batch of new executions.
+	 * Existing q-values are refreshed in a single pass over E' (per distinct design in the batch),
+	 * i.e. ingesting k executions costs O(|E'|*|distinct designs in batch| + k*|Theta'|), rather than O(k*(|E'|+|Theta'|)).
+	 */
+	@Override
+	public void updateAll(List<DesignType> thetas, List<ExecutionType> new_execs){
+		if(thetas.size() != new_execs.size()){
+			throw new IllegalArgumentException("got "+thetas.size()+" designs for "+new_execs.size()+" executions");
+		}
+		//count occurrences of each distinct design in the batch
+		Map<DesignType,Integer> counts = new LinkedHashMap<DesignType,Integer>();
+		for(DesignType theta : thetas){
+			Integer c = counts.get(theta);
+			counts.put(theta, c == null? 1 : c + 1);
+		}
+		
+		//update g-values:
+		//for existing executions O(E')
+		for(int i = 0; i < execs.size(); i++){
+			ExecutionType exec = execs.get(i);
+			double dq = 0;
+			for(Map.Entry<DesignType,Integer> entry : counts.entrySet()){
+				dq += entry.getValue()*pr.apply(entry.getKey(), exec);
+			}
+			qs.set(i,qs.get(i)+dq);
+		}
+		for(Map.Entry<DesignType,Integer> entry : counts.entrySet()){
+			Integer c = Theta_used.get(entry.getKey());
+			Theta_used.put(entry.getKey(), c == null? entry.getValue() : c + entry.getValue());
+		}
+		//for new executions O(Pi')
+		Set<DesignType> keyset = Theta_used.keySet();
+		for(int k = 0; k < new_execs.size(); k++){
+			ExecutionType exec = new_execs.get(k);
+			double p_exec = p.apply(exec);
+			
+			//update for standard deviation
+			sum_p += p_exec;
+			sum_p2 += p_exec*p_exec;
+			
+			double qNew = 0;
+			for(DesignType used_pi : keyset){
+				qNew += Theta_used.get(used_pi)*pr.apply(used_pi,exec);
+			}
+			execs.add(exec);
+			gens.add(thetas.get(k));
+			qs.add(qNew);
+		}
+		invalidate();
+	}
+	
+	/**
+	 * Invalidates the log Q' values computed so far (to be called whenever Theta' changes).
+	 */
+	protected void invalidate(){
+		if(log_pr != null){
+			if(log_qs.length < execs.size()){
+				log_qs = new double[Math.max(execs.size(), 2*log_qs.length)];
+			}
+			Arrays.fill(log_qs, Double.NaN);
+		}
+	}
+	
+	/**
+	 * @return the IS weight of the i-th execution in E' for theta, i.e. pr(theta,e)/Q'(e), using log-likelihoods if these underflow
+	 */
+	protected double weight(DesignType theta, int i){
+		ExecutionType exec = execs.get(i);
+		double pr_exec = pr.apply(theta,exec);
+		double q = qs.get(i);
+		if(log_pr != null && (pr_exec < Double.MIN_NORMAL || q < Double.MIN_NORMAL)){
+			return Math.exp(log_pr.apply(theta,exec) - logQ(i));
+		}
+		return pr_exec/q;
+	}
+	
+	/**
+	 * Computes the IS weights of all executions in E' for theta, i.e. out[i] = weight(theta,i).
+	 */
+	protected void weights(DesignType theta, double[] out){
+		int n = execs.size();
+		if(batch_pr != null){
+			batch_pr.apply(theta, execs, out);
+		}else{
+			for(int i = 0; i < n; i++){
+				out[i] = pr.apply(theta,execs.get(i));
+			}
+		}
+		boolean logs = false; //log-likelihoods computed?
+		for(int i = 0; i < n; i++){
+			double q = qs.get(i);
+			if(log_pr != null && (out[i] < Double.MIN_NORMAL || q < Double.MIN_NORMAL)){
+				if(!logs){
+					logLikelihoods(theta);
+					logs = true;
+				}
+				out[i] = Math.exp(log_ws[i] - logQ(i));
+			}else{
+				out[i] /= q;
+			}
+		}
+	}
+	
+	/*
+	 * Computes log_pr of theta for all executions in E' (in log_ws).
+	 */
+	private void logLikelihoods(DesignType theta){
+		int n = execs.size();
+		if(log_ws.length < n){
+			log_ws = new double[Math.max(n, 2*log_ws.length)];
+		}
+		if(batch_log_pr != null){
+			batch_log_pr.apply(theta, execs, log_ws);
+		}else{
+			for(int i = 0; i < n; i++){
+				log_ws[i] = log_pr.apply(theta,execs.get(i));
+			}
+		}
+	}
+	
+	/*
+	 * @return log Q'(e) for the i-th execution in E', i.e. the log-sum-exp of log(count)+log_pr(theta_used,e) over Theta', if Q' underflows
+	 */
+	private double logQ(int i){
+		double q = qs.get(i);
+		if(q >= Double.MIN_NORMAL){
+			return Math.log(q);
+		}
+		if(Double.isNaN(log_qs[i])){
+			ExecutionType exec = execs.get(i);
+			double max = Double.NEGATIVE_INFINITY;
+			double[] terms = new double[Theta_used.size()];
+			int t = 0;
+			for(Map.Entry<DesignType,Integer> used_pi : Theta_used.entrySet()){
+				terms[t] = Math.log(used_pi.getValue()) + log_pr.apply(used_pi.getKey(),exec);
+				max = Math.max(max, terms[t]);
+				t++;
+			}
+			double sum = 0;
+			for(double term : terms){
+				sum += Math.exp(term-max);
+			}
+			log_qs[i] = max + Math.log(sum);
+		}
+		return log_qs[i];
+	}
+	
+	/*
+	 * @return a scratch array for (at least) |E'| weights
+	 */
+	private double[] scratch(boolean second){
+		int n = execs.size();
+		if(second){
+			if(ws2.length < n){
+				ws2 = new double[Math.max(n, 2*ws2.length)];
+			}
+			return ws2;
+		}
+		if(ws1.length < n){
+			ws1 = new double[Math.max(n, 2*ws1.length)];
+		}
+		return ws1;
+	}
+	
+	protected double STD(){
+		double n = execs.size(); //as double, |E'|^2 may overflow int
+		return Math.sqrt(sum_p2/n - (sum_p*sum_p)/(n*n));
 	}
 	
 	public double o(DesignType theta) {
 		double mean = 0;
 		//compute IS estimate
 		double norm = 0;
+		double[] ws = scratch(false);
+		weights(theta, ws);
 		//loop over all prior executions, adding weighted observations
 		for(int i = 0; i < execs.size(); i++){
-			ExecutionType exec = execs.get(i);
-			double w = pr.apply(theta,exec)/qs.get(i);
+			double w = ws[i];
 			norm += w;
-			mean += w*p.apply(exec);
+			mean += w*p.apply(execs.get(i));
 		}
 		//normalise
 		return norm == 0? mean : mean/norm;
@@ -108,9 +319,11 @@ public class ImportanceSamplingModel<DesignType,ExecutionType> implements Perfor
 		double norm = 0; //sum of weights
 		double norm2 = 0; //sum of squared weights
 		
+		double[] ws = scratch(false);
+		weights(theta, ws);
 		//loop over all prior executions
 		for(int i = 0; i < execs.size(); i++){
-			double w = pr.apply(theta,execs.get(i))/qs.get(i);
+			double w = ws[i];
 			norm += w;
 			norm2 += w*w;
 		}
@@ -137,11 +350,13 @@ public class ImportanceSamplingModel<DesignType,ExecutionType> implements Perfor
 		double sc = 0;
 		double norm1 = 0;
 		double norm2 = 0;
+		double[] col1 = scratch(false);
+		double[] col2 = scratch(true);
+		weights(theta1, col1);
+		weights(theta2, col2);
 		for(int i = 0; i < qs.size(); i++){
-			ExecutionType exec = execs.get(i);
-			double G = qs.get(i);
-			double w1 = pr.apply(theta1,exec)/G;
-			double w2 = pr.apply(theta2,exec)/G;
+			double w1 = col1[i];
+			double w2 = col2[i];
 			norm1 += w1;
 			norm2 += w2;
 			sc += Math.min(w1,w2);
@@ -1,12 +1,15 @@
 package is4ape.pm;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.function.Function;
 
 /**
  * An implementation of the sample-based estimators.
- * 
+ *
+ * Observations are summarized per design using streaming (Welford) accumulators,
+ * such that both updates and queries are O(1) and memory per design is constant.
+ * Optionally, the raw observations can be retained as well (e.g. for diagnostics).
+ *
  * @author Steven Adriaensen
  *
  * @param <DesignType> The type of the design (it should properly (re-)define equals/hashcode methods!)
@@ -14,34 +17,74 @@ import java.util.function.Function;
  */
 public class IndependentSampleAveragesModel<DesignType,ExecutionType> implements PerformanceModel<DesignType,ExecutionType>{
 	final Function<ExecutionType,Double> p; //The notion of 'desirability of an execution' used
-	
-	HashMap<DesignType,List<Double>> results; //stores performance observations f(e) for all e \in E'
+	final boolean retain; //whether to retain raw observations f(e) for all e \in E'
+
+	HashMap<DesignType,Accumulator> results; //summarizes performance observations f(e) for all e \in E'
 	int n_exec;
 	double sum_p;
 	double sum_p2;
-	
+
+	/*
+	 * Streaming summary of the observations for a single design.
+	 */
+	static class Accumulator{
+		int n; //# observations
+		double mean; //running mean
+		double m2; //sum of squared deviations from the mean
+		double[] obs; //raw observations (null if not retained)
+
+		Accumulator(boolean retain){
+			obs = retain? new double[4] : null;
+		}
+
+		void add(double f){
+			if(obs != null){
+				if(n == obs.length){
+					obs = Arrays.copyOf(obs, 2*n);
+				}
+				obs[n] = f;
+			}
+			n++;
+			double delta = f-mean;
+			mean += delta/n;
+			m2 += delta*(f-mean);
+		}
+
+		double variance(){
+			return n > 1? m2/(n-1) : 0;
+		}
+	}
+
 	/**
-	 * Creates an instance of the IS estimator.
-	 * @param f: The notion of 'desirability of an execution' to be used
-	 * @param pr: The function to be used to compute the likelihood of generating an execution using a given design
+	 * Creates an instance of the sample average estimator.
+	 * @param p: The notion of 'desirability of an execution' to be used
 	 */
 	public IndependentSampleAveragesModel(Function<ExecutionType,Double> p){
+		this(p,false);
+	}
+
+	/**
+	 * Creates an instance of the sample average estimator.
+	 * @param p: The notion of 'desirability of an execution' to be used
+	 * @param retain: Whether to retain all raw observations (see observations(theta))
+	 */
+	public IndependentSampleAveragesModel(Function<ExecutionType,Double> p, boolean retain){
 		this.p = p;
-		results = new HashMap<DesignType,List<Double>>();
+		this.retain = retain;
+		results = new HashMap<DesignType,Accumulator>();
 	}
-	
+
 	private double STD(){
-		return Math.sqrt(sum_p2/n_exec - (sum_p*sum_p)/(n_exec*n_exec));
+		double n = n_exec; //as double, n_exec^2 may overflow int
+		return Math.sqrt(sum_p2/n - (sum_p*sum_p)/(n*n));
 	}
 
 	@Override
 	public void update(DesignType theta, ExecutionType exec) {
-		List<Double> results_theta;
+		Accumulator results_theta = results.get(theta);
 		//if first result for policy
-		if(results.containsKey(theta)){
-			results_theta = results.get(theta);
-		}else{
-			results_theta = new LinkedList<Double>();
+		if(results_theta == null){
+			results_theta = new Accumulator(retain);
 			results.put(theta, results_theta);
 		}
 		double f_exec = p.apply(exec);
@@ -51,33 +94,22 @@ public class IndependentSampleAveragesModel<DesignType,ExecutionType> implements
 		sum_p += f_exec;
 		sum_p2 += f_exec*f_exec;
 	}
-	
+
 	@Override
 	public double o(DesignType theta) {
-		double avg = 0;
-		if(results.containsKey(theta)){
-			List<Double> res = results.get(theta);
-			int i = 1;
-			for(Double f : res){
-				avg += (f-avg)/i;
-				i++;
-			}
-		}
-		return avg;
+		Accumulator res = results.get(theta);
+		return res == null? 0 : res.mean;
 	}
-	
+
 	/*
 	 * Returns the sample size of the estimate of a given design
 	 * i.e. the number of observations (executions) on which it is based.
 	 */
 	public double n(DesignType theta){
-		if(results.containsKey(theta)){
-			return results.get(theta).size();
-		}else{
-			return 0;
-		}
+		Accumulator res = results.get(theta);
+		return res == null? 0 : res.n;
 	}
-	
+
 	public double unc(DesignType theta){
 		if(results.containsKey(theta)){
 			return STD()/Math.sqrt(n(theta));
@@ -86,6 +118,26 @@ public class IndependentSampleAveragesModel<DesignType,ExecutionType> implements
 		}
 	}
 
+	/*
+	 * Returns the sample variance of the observations of a given design.
+	 */
+	public double var(DesignType theta){
+		Accumulator res = results.get(theta);
+		return res == null? 0 : res.variance();
+	}
+
+	/*
+	 * Returns (a copy of) the raw observations of a given design, in the order observed.
+	 * Only available if the model was created to retain them.
+	 */
+	public double[] observations(DesignType theta){
+		if(!retain){
+			throw new IllegalStateException("raw observations are not retained by this model");
+		}
+		Accumulator res = results.get(theta);
+		return res == null? new double[0] : Arrays.copyOf(res.obs, res.n);
+	}
+
 	@Override
 	public double sim(DesignType theta1, DesignType theta2) {
 		return theta1.equals(theta2)? 1.0 : 0.0;
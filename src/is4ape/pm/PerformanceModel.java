@@ -1,5 +1,8 @@
 package is4ape.pm;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Implementing classes provide estimates of the performance of designs (algorithm instances)
  * based on E', i.e. a sample of executions collected.
@@ -18,6 +21,30 @@ public interface PerformanceModel<DesignType,ExecutionType> {
 	 */
 	void update(DesignType theta, ExecutionType exec);
 	
+	/**
+	 * Updates the model after a batch of new executions, all obtained using the same design.
+	 * 
+	 * @param theta: Design used to obtain the new executions.
+	 * @param execs: The new executions.
+	 */
+	default void updateAll(DesignType theta, List<ExecutionType> execs){
+		updateAll(Collections.nCopies(execs.size(), theta), execs);
+	}
+	
+	/**
+	 * Updates the model after a batch of new executions.
+	 * The result is equivalent to calling update(thetas.get(i), execs.get(i)) for each i (in order),
+	 * implementing classes may however do so more efficiently.
+	 * 
+	 * @param thetas: Designs used to obtain the new executions.
+	 * @param execs: The new executions.
+	 */
+	default void updateAll(List<DesignType> thetas, List<ExecutionType> execs){
+		for(int i = 0; i < execs.size(); i++){
+			update(thetas.get(i), execs.get(i));
+		}
+	}
+	
 	/*
 	 * Provides an estimate of the average-case performance of a given design
 	 */
@@ -0,0 +1,229 @@
+package is4ape.pm;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decorator for an importance sampling model, estimating the similarity of designs to a reference design (e.g. the incumbent)
+ * from a compact sketch of E'.
+ *
+ * The sketch is a priority sample S of (at most) k executions, drawn proportionally to sampling weights a(e) = 0.5*w_ref(e) + 0.5*c,
+ * i.e. the IS weights of the reference design, w_ref(e) = pr(theta_ref,e)/q(e), mixed with a uniform (defensive) component
+ * (c being the mean of w_ref over E' at the time the sketch was built), such that executions which are unlikely under the
+ * reference design, but not under the other design, can be sampled as well. Executions in E' have a fixed random priority,
+ * i.e. samples are coordinated between successive sketches.
+ * The sampling weight of an execution is fixed once it is added to the sketch. The k+1 highest priorities are kept in a (min) heap,
+ * such that each execution added to E' is added to the sketch in O(log k). Only when the reference design changes,
+ * the sketch is rebuilt, in O(|E'| log k). As q changes with every update of E', the weights of the reference design for S,
+ * and the estimate of their sum over E', are refreshed (in O(k)) after each update.
+ * sim(theta_ref,theta) is then estimated in O(k) (rather than O(|E'|)) using Horvitz-Thompson estimates of the weights of both designs,
+ * which also provide an estimate of its standard error. If |E'| <= k, S = E' and the estimate is exact.
+ *
+ * All other queries are passed on to the underlying model.
+ *
+ * @author Steven Adriaensen
+ *
+ * @param <DesignType> The type of the design
+ * @param <ExecutionType> The type of the execution
+ */
+public class SketchSimilarity<DesignType,ExecutionType> implements PerformanceModel<DesignType,ExecutionType>{
+	final ImportanceSamplingModel<DesignType,ExecutionType> M;
+	final int k; //sketch size
+	final Random rng;
+
+	double[] u = new double[0]; //the random priority of each execution in E'
+
+	//the current sketch
+	DesignType theta_ref; //the reference design
+	double c; //the uniform component of the sampling weights
+	int n_added; //# executions in E' added to the sketch
+	//(min) heap of the (at most) k+1 executions with the highest priority, i.e. S and (if full) the root, whose priority is tau
+	int[] heap; //indices in E'
+	double[] heap_a; //sampling weights
+	double[] heap_priority;
+	int heap_size;
+
+	//the sample, derived from the heap
+	int n_built = -1; //|E'| at the time the sample was derived
+	int[] sample; //indices in E'
+	double[] ps; //inclusion probability of each execution in S
+	double[] w_ref; //IS weights of the reference design for each execution in S
+	double norm_ref; //HT estimate of the sum of the IS weights of the reference design (over all of E')
+	int size; //|S|
+
+	/**
+	 * @param M: The IS model
+	 * @param k: The sketch size
+	 * @param rng: The random generator used to prioritize executions
+	 */
+	public SketchSimilarity(ImportanceSamplingModel<DesignType,ExecutionType> M, int k, Random rng){
+		this.M = M;
+		this.k = k;
+		this.rng = rng;
+		heap = new int[k+1];
+		heap_a = new double[k+1];
+		heap_priority = new double[k+1];
+		sample = new int[k];
+		ps = new double[k];
+		w_ref = new double[k];
+	}
+
+	/*
+	 * Rebuilds the sketch if the reference design changed, adds the executions added to E' since, and derives the sample.
+	 */
+	private void build(DesignType theta){
+		int N = M.execs.size();
+		if(u.length < N){
+			int n_old = u.length;
+			u = Arrays.copyOf(u, Math.max(N, 2*n_old));
+			for(int i = n_old; i < u.length; i++){
+				u[i] = rng.nextDouble();
+			}
+		}
+		if(!theta.equals(theta_ref)){
+			//rebuild: c is the mean weight of the reference design
+			double[] w = new double[N];
+			M.weights(theta, w);
+			double norm = 0;
+			for(int i = 0; i < N; i++){
+				norm += w[i];
+			}
+			c = norm == 0? 1 : norm/N;
+			heap_size = 0;
+			for(int i = 0; i < N; i++){
+				add(i, 0.5*w[i] + 0.5*c);
+			}
+			theta_ref = theta;
+			n_added = N;
+			n_built = -1;
+		}
+		for(int i = n_added; i < N; i++){
+			add(i, 0.5*M.weight(theta,i) + 0.5*c);
+		}
+		n_added = N;
+		if(n_built == N){
+			return;
+		}
+		//priority sampling: S contains the k executions with the highest priority, tau is the (k+1)-th highest priority
+		double tau = heap_size > k? heap_priority[0] : 0;
+		size = 0;
+		norm_ref = 0;
+		for(int h = heap_size > k? 1 : 0; h < heap_size; h++){
+			sample[size] = heap[h];
+			ps[size] = Math.min(1, heap_a[h]/tau); //1 if tau = 0
+			w_ref[size] = M.weight(theta,heap[h]);
+			norm_ref += w_ref[size]/ps[size];
+			size++;
+		}
+		n_built = N;
+	}
+
+	/*
+	 * Adds the i-th execution in E' to the sketch, with sampling weight a, i.e. in O(log k).
+	 */
+	private void add(int i, double a){
+		double priority = a/(1-u[i]); //1-u in (0,1]
+		int h;
+		if(heap_size <= k){
+			//sift up
+			h = heap_size++;
+			while(h > 0 && heap_priority[(h-1)/2] > priority){
+				move((h-1)/2, h);
+				h = (h-1)/2;
+			}
+		}else if(priority > heap_priority[0]){
+			//replace the root, sift down
+			h = 0;
+			while(true){
+				int child = 2*h+1;
+				if(child >= heap_size){
+					break;
+				}
+				if(child+1 < heap_size && heap_priority[child+1] < heap_priority[child]){
+					child++;
+				}
+				if(heap_priority[child] >= priority){
+					break;
+				}
+				move(child, h);
+				h = child;
+			}
+		}else{
+			return;
+		}
+		heap[h] = i;
+		heap_a[h] = a;
+		heap_priority[h] = priority;
+	}
+
+	private void move(int from, int to){
+		heap[to] = heap[from];
+		heap_a[to] = heap_a[from];
+		heap_priority[to] = heap_priority[from];
+	}
+
+	/**
+	 * Estimates sim(theta_ref,theta) using the sketch for theta_ref.
+	 * @return {estimate, standard error}
+	 */
+	public double[] estimate(DesignType theta_ref, DesignType theta){
+		build(theta_ref);
+		if(norm_ref == 0){
+			return new double[]{0,0};
+		}
+		double[] w = new double[size];
+		double sc = 0;
+		double norm = 0;
+		for(int j = 0; j < size; j++){
+			w[j] = M.weight(theta,sample[j]);
+			norm += w[j]/ps[j];
+			sc += Math.min(w_ref[j],w[j])/ps[j];
+		}
+		if(norm == 0){
+			return new double[]{0,0};
+		}
+		//both designs are normalized using their HT estimates
+		boolean ref = norm_ref >= norm;
+		double max_norm = ref? norm_ref : norm;
+		double sim = sc/max_norm;
+		//linearized variance of the (HT) ratio estimator, residuals r = (min(w_ref,w) - sim*w_max)/max_norm
+		double var = 0;
+		for(int j = 0; j < size; j++){
+			double r = (Math.min(w_ref[j],w[j]) - sim*(ref? w_ref[j] : w[j]))/max_norm;
+			var += (1-ps[j])*r*r/(ps[j]*ps[j]);
+		}
+		return new double[]{sim,Math.sqrt(var)};
+	}
+
+	@Override
+	public double sim(DesignType theta1, DesignType theta2) {
+		return estimate(theta1,theta2)[0];
+	}
+
+	@Override
+	public void update(DesignType theta, ExecutionType exec) {
+		M.update(theta, exec);
+	}
+
+	@Override
+	public void updateAll(List<DesignType> thetas, List<ExecutionType> execs) {
+		M.updateAll(thetas, execs);
+	}
+
+	@Override
+	public double o(DesignType theta) {
+		return M.o(theta);
+	}
+
+	@Override
+	public double unc(DesignType theta) {
+		return M.unc(theta);
+	}
+
+	@Override
+	public double n(DesignType theta) {
+		return M.n(theta);
+	}
+
+}
@@ -1,6 +1,7 @@
 package is4ape.pm.memoize;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import is4ape.pm.PerformanceModel;
@@ -12,79 +13,122 @@ import is4ape.pm.PerformanceModel;
  * - unc
  * - sim
  * 
+ * Optionally, values are memoized per signature (rather than per design), i.e. shared by all designs with the same signature.
+ * 
  * @author Steven Adriaensen
  *
  * @param <DesignType> The type of the design
  * @param <ExecutionType> The type of the execution
  */
 public class MemoizePM<DesignType,ExecutionType> implements PerformanceModel<DesignType,ExecutionType>{	
-	Map<DesignType,Double> o_cache;
-	Map<DesignType,Double> n_cache;
-	Map<DesignType,Double> unc_cache;
-	Map<DesignType,Map<DesignType,Double>> sim_cache;
+	Map<Object,Double> o_cache;
+	Map<Object,Double> n_cache;
+	Map<Object,Double> unc_cache;
+	Map<Object,Map<Object,Double>> sim_cache;
 	PerformanceModel<DesignType,ExecutionType> M;
+	Signature<DesignType,ExecutionType> signature; //null: memoize per design
 	
 	public MemoizePM(PerformanceModel<DesignType,ExecutionType> M) {
+		this(M,null);
+	}
+	
+	/**
+	 * Memoizes values per signature, i.e. M must provide IS estimates (see Signature).
+	 * Updates through this decorator are registered with the signature.
+	 */
+	public MemoizePM(PerformanceModel<DesignType,ExecutionType> M, Signature<DesignType,ExecutionType> signature) {
 		this.M = M;
-		o_cache = new HashMap<DesignType,Double>();
-		n_cache = new HashMap<DesignType,Double>();
-		unc_cache = new HashMap<DesignType,Double>();
-		sim_cache = new HashMap<DesignType,Map<DesignType,Double>>();
+		this.signature = signature;
+		o_cache = new HashMap<Object,Double>();
+		n_cache = new HashMap<Object,Double>();
+		unc_cache = new HashMap<Object,Double>();
+		sim_cache = new HashMap<Object,Map<Object,Double>>();
+	}
+	
+	private Object key(DesignType theta){
+		return signature == null? theta : signature.of(theta);
 	}
 
-	@Override
-	public void update(DesignType theta, ExecutionType exec){
+	/**
+	 * Clears all memoized values.
+	 * This should be called whenever the underlying model was updated, other than through this decorator.
+	 */
+	public void clear(){
 		o_cache.clear();
 		n_cache.clear();
 		unc_cache.clear();
 		sim_cache.clear();
+	}
+
+	@Override
+	public void update(DesignType theta, ExecutionType exec){
+		clear();
+		if(signature != null){
+			signature.update(exec);
+		}
 		M.update(theta, exec);
 	}
 	
+	@Override
+	public void updateAll(List<DesignType> thetas, List<ExecutionType> execs){
+		clear();
+		if(signature != null){
+			for(ExecutionType exec : execs){
+				signature.update(exec);
+			}
+		}
+		M.updateAll(thetas, execs);
+	}
+	
 	@Override
 	public double o(DesignType theta){
-		if(!o_cache.containsKey(theta)){
-			o_cache.put(theta, M.o(theta));
+		Object key = key(theta);
+		if(!o_cache.containsKey(key)){
+			o_cache.put(key, M.o(theta));
 		}
-		return o_cache.get(theta);
+		return o_cache.get(key);
 	}
 	
 	@Override
 	public double unc(DesignType theta){
-		if(!unc_cache.containsKey(theta)){
-			unc_cache.put(theta, M.unc(theta));
+		Object key = key(theta);
+		if(!unc_cache.containsKey(key)){
+			unc_cache.put(key, M.unc(theta));
 		}
-		return unc_cache.get(theta);
+		return unc_cache.get(key);
 	}
 	
 	@Override
 	public double sim(DesignType pi1, DesignType pi2){
+		Object key1 = key(pi1);
+		Object key2 = key(pi2);
 		boolean forPi1;
-		if(sim_cache.containsKey(pi1) && sim_cache.get(pi1).containsKey(pi2)){
+		if(sim_cache.containsKey(key1) && sim_cache.get(key1).containsKey(key2)){
 			forPi1 = true;
-		}else if(sim_cache.containsKey(pi2) && sim_cache.get(pi2).containsKey(pi1)){
+		}else if(sim_cache.containsKey(key2) && sim_cache.get(key2).containsKey(key1)){
 			forPi1 = false;
 		}else{
-			if(!sim_cache.containsKey(pi1)){
-				Map<DesignType,Double> sims = new HashMap<DesignType,Double>();
-				sim_cache.put(pi1, sims);
+			if(!sim_cache.containsKey(key1)){
+				Map<Object,Double> sims = new HashMap<Object,Double>();
+				sim_cache.put(key1, sims);
 			}
-			sim_cache.get(pi1).put(pi2, M.sim(pi1, pi2));
+			sim_cache.get(key1).put(key2, M.sim(pi1, pi2));
 			forPi1 = true;
 		}
 		if(forPi1){
-			return sim_cache.get(pi1).get(pi2);
+			return sim_cache.get(key1).get(key2);
 		}else{
-			return sim_cache.get(pi2).get(pi1);
+			return sim_cache.get(key2).get(key1);
 		}
 	}
 
 	@Override
 	public double n(DesignType theta) {
-		if(!n_cache.containsKey(theta)){
-			n_cache.put(theta, M.n(theta));
+		Object key = key(theta);
+		if(!n_cache.containsKey(key)){
+			n_cache.put(key, M.n(theta));
 		}
-		return n_cache.get(theta);
+		return n_cache.get(key);
 	}
 	
 }
@@ -0,0 +1,28 @@
+package is4ape.pm.memoize;
+
+/**
+ * A behavioral signature of designs w.r.t. E', i.e. designs with equal signatures are guaranteed to have the same likelihood
+ * pr(theta,e) for every execution e in E', and hence identical IS estimates (o, n, unc and sim).
+ * Note that this does not hold for independent sample averages.
+ *
+ * @author Steven Adriaensen
+ *
+ * @param <DesignType> The type of the design
+ * @param <ExecutionType> The type of the execution
+ */
+public interface Signature<DesignType,ExecutionType> {
+	/**
+	 * Registers a new execution, i.e. an execution added to E'.
+	 */
+	void update(ExecutionType exec);
+
+	/**
+	 * @return the signature of theta w.r.t. (the executions registered in) E', implementing equals and hashCode.
+	 */
+	Object of(DesignType theta);
+
+	/**
+	 * Forgets all executions registered, i.e. E' is empty (e.g. at the start of a new run).
+	 */
+	void clear();
+}
@@ -0,0 +1,130 @@
+package is4ape.pm.specialize;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import is4ape.pm.ImportanceSamplingModel;
+
+/**
+ * The base class of the models generated by SpecializedISModel.
+ *
+ * E' is stored column-wise in primitive arrays, i.e. the i-th execution is ex[i], with Q'(e) q[i] and desirability ps[i],
+ * such that the generated estimator loops iterate over arrays, rather than (boxed) lists.
+ * The lists of ImportanceSamplingModel (execs and qs) are (read-only) views on these columns,
+ * i.e. other estimators (e.g. ApproximateISModel, BoundedISEstimates) can be used on top of a specialized model as before.
+ *
+ * @author Steven Adriaensen
+ *
+ * @param <DesignType> The type of the design
+ * @param <ExecutionType> The type of the execution
+ */
+public abstract class ColumnarISModel<DesignType,ExecutionType> extends ImportanceSamplingModel<DesignType,ExecutionType> {
+	protected ExecutionType[] ex; //E'
+	protected double[] q; //Q'(e) for all e in E'
+	protected double[] ps; //p(e) for all e in E'
+	protected int size; //|E'|
+
+	/**
+	 * @param ex: an (empty) array of executions, determining the initial capacity
+	 */
+	protected ColumnarISModel(Function<ExecutionType,Double> p, BiFunction<DesignType,ExecutionType,Double> pr, ExecutionType[] ex){
+		this(p,pr,null,ex);
+	}
+
+	/**
+	 * @param log_pr: the log of pr, used for executions whose likelihoods underflow (null: none)
+	 * @param ex: an (empty) array of executions, determining the initial capacity
+	 */
+	protected ColumnarISModel(Function<ExecutionType,Double> p, BiFunction<DesignType,ExecutionType,Double> pr,
+			BiFunction<DesignType,ExecutionType,Double> log_pr, ExecutionType[] ex){
+		super(p,pr,log_pr);
+		this.ex = ex;
+		q = new double[ex.length];
+		ps = new double[ex.length];
+		execs = new AbstractList<ExecutionType>(){
+			@Override
+			public ExecutionType get(int i){
+				return ex(i);
+			}
+
+			@Override
+			public int size(){
+				return size;
+			}
+		};
+		qs = new AbstractList<Double>(){
+			@Override
+			public Double get(int i){
+				return q(i);
+			}
+
+			@Override
+			public int size(){
+				return size;
+			}
+		};
+	}
+
+	private ExecutionType ex(int i){
+		if(i >= size){
+			throw new IndexOutOfBoundsException(i+" >= "+size);
+		}
+		return ex[i];
+	}
+
+	private double q(int i){
+		if(i >= size){
+			throw new IndexOutOfBoundsException(i+" >= "+size);
+		}
+		return q[i];
+	}
+
+	/**
+	 * Adds an execution (generated using theta) to E', given Q'(exec) and p(exec).
+	 */
+	protected final void append(DesignType theta, ExecutionType exec, double q_exec, double p_exec){
+		if(size == ex.length){
+			int capacity = Math.max(16, 2*size);
+			ex = Arrays.copyOf(ex, capacity);
+			q = Arrays.copyOf(q, capacity);
+			ps = Arrays.copyOf(ps, capacity);
+		}
+		ex[size] = exec;
+		q[size] = q_exec;
+		ps[size] = p_exec;
+		size++;
+		gens.add(theta);
+		//update for standard deviation
+		sum_p += p_exec;
+		sum_p2 += p_exec*p_exec;
+	}
+
+	/**
+	 * Adds count uses of theta to Theta'.
+	 */
+	protected final void use(DesignType theta, int count){
+		Integer c = Theta_used.get(theta);
+		Theta_used.put(theta, c == null? count : c + count);
+	}
+
+	/**
+	 * @return the number of occurrences of each distinct design in thetas (in order of first occurrence)
+	 */
+	protected final Map<DesignType,Integer> count(List<DesignType> thetas, List<ExecutionType> new_execs){
+		if(thetas.size() != new_execs.size()){
+			throw new IllegalArgumentException("got "+thetas.size()+" designs for "+new_execs.size()+" executions");
+		}
+		Map<DesignType,Integer> counts = new LinkedHashMap<DesignType,Integer>();
+		for(DesignType theta : thetas){
+			Integer c = counts.get(theta);
+			counts.put(theta, c == null? 1 : c + 1);
+		}
+		return counts;
+	}
+
+}
@@ -0,0 +1,114 @@
+package is4ape.pm.specialize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import is4ape.bench.loop.Looping;
+import is4ape.pm.ImportanceSamplingModel;
+
+/**
+ * A simple benchmark comparing the generic ImportanceSamplingModel to its specialized counterpart (see SpecializedISModel),
+ * on the looping problem scenario.
+ *
+ * To expose the effect of megamorphic call sites, the generic model is first warmed up on several scenarios.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class SpecializationBenchmark {
+
+	/**
+	 * @param args: OPTIONAL, in order:
+	 *     args[0]: the number of executions in E' (default 10000), generated in batches (one per design)
+	 *     args[1]: the number of designs to query (default 1000)
+	 *     args[2]: the number of repetitions (default 5)
+	 */
+	public static void main(String[] args) {
+		int n_execs = args.length > 0? Integer.parseInt(args[0]) : 10000;
+		int n_designs = args.length > 1? Integer.parseInt(args[1]) : 1000;
+		int reps = args.length > 2? Integer.parseInt(args[2]) : 5;
+
+		//pollute the type profile of the generic model with other scenarios
+		pollute();
+
+		ImportanceSamplingModel<Looping.Design,Looping.ExecutionInfo> generic =
+				new ImportanceSamplingModel<Looping.Design,Looping.ExecutionInfo>(Looping.ExecutionInfo::p,Looping::getLikelihood);
+		ImportanceSamplingModel<Looping.Design,Looping.ExecutionInfo> specialized =
+				SpecializedISModel.create(Looping.ExecutionInfo.class, "p", Looping.class, "getLikelihood");
+		System.out.println("specialized model: "+specialized.getClass().getName());
+
+		Random rng = new Random(0);
+		List<Looping.Design> thetas_used = new ArrayList<Looping.Design>();
+		for(int i = 0; i < 10; i++){
+			thetas_used.add(Looping.uniformGlobalPriorDiscrete(rng));
+		}
+		//E': a batch of executions per design (see Looping.run)
+		SplittableRandom batch_rng = new SplittableRandom(0);
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < thetas_used.size(); i++){
+			Looping.Design theta = thetas_used.get(i);
+			int n = n_execs/thetas_used.size() + (i < n_execs % thetas_used.size()? 1 : 0);
+			List<Looping.ExecutionInfo> execs = Looping.run(batch_rng, theta, n);
+			generic.updateAll(theta, execs);
+			specialized.updateAll(theta, execs);
+		}
+		System.out.println("generated and ingested "+n_execs+" executions in "+(System.currentTimeMillis()-start)+"ms");
+		List<Looping.Design> queries = new ArrayList<Looping.Design>();
+		for(int i = 0; i < n_designs; i++){
+			queries.add(Looping.uniformGlobalPriorDiscrete(rng));
+		}
+
+		for(int r = 0; r < reps; r++){
+			System.out.println("<repetition "+(r+1)+">");
+			System.out.println("generic: "+time(generic,queries)+"ms");
+			System.out.println("specialized: "+time(specialized,queries)+"ms");
+		}
+	}
+
+	static long time(ImportanceSamplingModel<Looping.Design,Looping.ExecutionInfo> M, List<Looping.Design> queries){
+		long start = System.currentTimeMillis();
+		double sink = 0;
+		for(Looping.Design theta : queries){
+			sink += M.o(theta) + M.n(theta);
+		}
+		if(sink == Double.MIN_VALUE){
+			System.out.println(sink); //prevent dead code elimination
+		}
+		return System.currentTimeMillis()-start;
+	}
+
+	/*
+	 * Warms up the generic model using several distinct pr/p lambdas, 
+	 * such that its call sites see multiple receiver types.
+	 */
+	static void pollute(){
+		Random rng = new Random(1);
+		List<BiFunction<Looping.Design,Looping.ExecutionInfo,Double>> prs = Arrays.asList(
+			Looping::getLikelihood,
+			(theta,e) -> Looping.getLikelihood(theta,e),
+			(theta,e) -> 1.0
+		);
+		List<Function<Looping.ExecutionInfo,Double>> ps = Arrays.asList(
+			Looping.ExecutionInfo::p,
+			(e) -> Looping.ExecutionInfo.p(e),
+			(e) -> 0.0
+		);
+		for(int k = 0; k < prs.size(); k++){
+			ImportanceSamplingModel<Looping.Design,Looping.ExecutionInfo> M = 
+					new ImportanceSamplingModel<Looping.Design,Looping.ExecutionInfo>(ps.get(k),prs.get(k));
+			Looping.Design theta = Looping.uniformGlobalPriorDiscrete(rng);
+			for(int i = 0; i < 1000; i++){
+				M.update(theta, Looping.run(rng, theta));
+			}
+			for(int i = 0; i < 100; i++){
+				M.o(theta);
+			}
+		}
+	}
+
+}
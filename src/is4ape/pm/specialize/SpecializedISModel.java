@@ -0,0 +1,296 @@
+package is4ape.pm.specialize;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import is4ape.pm.ImportanceSamplingModel;
+
+/**
+ * Generates, at runtime, importance sampling models specialized for a specific scenario.
+ *
+ * The generic ImportanceSamplingModel calls pr and p through the BiFunction/Function interfaces in each loop iteration.
+ * Once several scenarios (i.e. lambdas) have been loaded, these call sites become megamorphic and the JIT can no longer inline them.
+ * Given the (public static) methods implementing pr and p, this class emits the source code of a subclass of ColumnarISModel
+ * with its own copy of the estimator loops (update, updateAll, o, n, sim), iterating over primitive columns,
+ * in which pr and p are invoked statically (i.e. monomorphic call sites), compiles it using the system Java compiler and loads it.
+ * Note that spinning a lambda for pr (e.g. using LambdaMetafactory or MethodHandles) would not suffice,
+ * as the loops calling it, shared by all scenarios, remain megamorphic. Rather, each scenario needs its own copy of these loops,
+ * and generating their source code (rather than bytecode) does not require a bytecode library.
+ *
+ * Generated classes are cached per (p,pr,log_pr) triple, the temporary files used to compile them are deleted once loaded.
+ * If no system Java compiler is available (e.g. when running on a JRE), the generic model is returned instead.
+ *
+ * @author Steven Adriaensen
+ *
+ */
+public class SpecializedISModel {
+	static final String PACKAGE = "is4ape.pm.specialize.gen";
+	static final Map<String,Class<?>> generated = new HashMap<String,Class<?>>();
+
+	/**
+	 * Creates an importance sampling model specialized for the given p and pr.
+	 *
+	 * @param pOwner: The class declaring p
+	 * @param pName: The name of the public static method implementing p, i.e. double p(ExecutionType)
+	 * @param prOwner: The class declaring pr
+	 * @param prName: The name of the public static method implementing pr, i.e. double pr(DesignType,ExecutionType)
+	 * @return An instance of the specialized IS model (or the generic model, if specialization failed).
+	 */
+	public static <DesignType,ExecutionType> ImportanceSamplingModel<DesignType,ExecutionType> create(
+			Class<?> pOwner, String pName, Class<?> prOwner, String prName){
+		return create(pOwner,pName,prOwner,prName,null);
+	}
+
+	/**
+	 * Creates an importance sampling model specialized for the given p and pr,
+	 * using log-likelihoods for executions whose likelihoods underflow (see ImportanceSamplingModel).
+	 *
+	 * @param logPrName: The name of the public static method implementing the log of pr, declared by prOwner (null: none)
+	 */
+	public static <DesignType,ExecutionType> ImportanceSamplingModel<DesignType,ExecutionType> create(
+			Class<?> pOwner, String pName, Class<?> prOwner, String prName, String logPrName){
+		Method p = find(pOwner,pName,1);
+		Method pr = find(prOwner,prName,2);
+		Method log_pr = logPrName == null? null : find(prOwner,logPrName,2);
+		try{
+			Class<?> cls = compile(p,pr,log_pr);
+			@SuppressWarnings("unchecked")
+			ImportanceSamplingModel<DesignType,ExecutionType> M = (ImportanceSamplingModel<DesignType,ExecutionType>) cls.getConstructor().newInstance();
+			return M;
+		}catch(Exception e){
+			System.err.println("Failed to specialize IS model for "+pr+", falling back on generic model: "+e);
+			return new ImportanceSamplingModel<DesignType,ExecutionType>(
+					(ExecutionType exec) -> invoke(p,exec),
+					(DesignType theta, ExecutionType exec) -> invoke(pr,theta,exec),
+					log_pr == null? null : (DesignType theta, ExecutionType exec) -> invoke(log_pr,theta,exec));
+		}
+	}
+
+	static Method find(Class<?> owner, String name, int n_args){
+		for(Method m : owner.getMethods()){
+			if(m.getName().equals(name) && m.getParameterCount() == n_args && Modifier.isStatic(m.getModifiers())){
+				return m;
+			}
+		}
+		throw new IllegalArgumentException("No public static method "+owner.getName()+"."+name+" with "+n_args+" argument(s)");
+	}
+
+	static double invoke(Method m, Object... args){
+		try{
+			return ((Number) m.invoke(null, args)).doubleValue();
+		}catch(ReflectiveOperationException e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	static synchronized Class<?> compile(Method p, Method pr, Method log_pr) throws IOException{
+		String key = p.toGenericString()+"|"+pr.toGenericString()+"|"+(log_pr == null? "" : log_pr.toGenericString());
+		Class<?> cls = generated.get(key);
+		if(cls == null){
+			JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+			if(compiler == null){
+				throw new IllegalStateException("no system Java compiler available");
+			}
+			String name = "IS_"+pr.getDeclaringClass().getSimpleName()+"_"+pr.getName()+"_"+generated.size();
+			Path dir = Files.createTempDirectory("is4ape");
+			byte[] bytes;
+			try{
+				Path src = dir.resolve(name+".java");
+				Files.write(src, source(name,p,pr,log_pr).getBytes(StandardCharsets.UTF_8));
+				int status = compiler.run(null, null, null,
+						"-nowarn",
+						"-classpath", System.getProperty("java.class.path"),
+						"-d", dir.toString(),
+						src.toString());
+				if(status != 0){
+					throw new IllegalStateException("compilation of "+src+" failed");
+				}
+				bytes = Files.readAllBytes(dir.resolve(PACKAGE.replace('.', File.separatorChar)).resolve(name+".class"));
+			}finally{
+				delete(dir);
+			}
+			cls = new Loader().define(PACKAGE+"."+name, bytes);
+			generated.put(key, cls);
+		}
+		return cls;
+	}
+
+	/*
+	 * Deletes a file or directory (recursively).
+	 */
+	static void delete(Path path) throws IOException{
+		if(Files.isDirectory(path)){
+			try(DirectoryStream<Path> children = Files.newDirectoryStream(path)){
+				for(Path child : children){
+					delete(child);
+				}
+			}
+		}
+		Files.deleteIfExists(path);
+	}
+
+	/*
+	 * Defines a generated class (from its bytecode), resolving all other classes using the loader of ImportanceSamplingModel.
+	 */
+	static class Loader extends ClassLoader{
+		Loader(){
+			super(ImportanceSamplingModel.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytes){
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/*
+	 * Emits the source code of the specialized model.
+	 * The estimator loops mirror those in ImportanceSamplingModel (performing the same operations, in the same order),
+	 * but iterate over the columns of ColumnarISModel, with pr and p bound statically.
+	 * p is evaluated once per execution (when it is added to E').
+	 * If log_pr is given, weights whose likelihoods underflow are computed by ImportanceSamplingModel.weight (i.e. from log-likelihoods).
+	 */
+	static String source(String name, Method p, Method pr, Method log_pr){
+		String D = typeName(pr.getGenericParameterTypes()[0]);
+		String E = typeName(pr.getGenericParameterTypes()[1]);
+		String E_raw = typeName(pr.getParameterTypes()[1]);
+		String P = typeName(p.getDeclaringClass())+"."+p.getName();
+		String PR = typeName(pr.getDeclaringClass())+"."+pr.getName();
+		String LOG_PR = log_pr == null? "null" : (typeName(log_pr.getDeclaringClass())+"."+log_pr.getName()).replaceAll("\\.(\\w+)$","::$1");
+		return
+			"package "+PACKAGE+";\n"+
+			"\n"+
+			"@SuppressWarnings(\"unchecked\")\n"+
+			"public final class "+name+" extends is4ape.pm.specialize.ColumnarISModel<"+D+","+E+">{\n"+
+			"	public "+name+"(){\n"+
+			"		super("+P.replaceAll("\\.(\\w+)$","::$1")+","+PR.replaceAll("\\.(\\w+)$","::$1")+","+LOG_PR+",new "+E_raw+"[16]);\n"+
+			"	}\n"+
+			"	\n"+
+			"	@Override\n"+
+			"	public void update("+D+" theta, "+E+" exec){\n"+
+			"		"+E+"[] ex = this.ex;\n"+
+			"		double[] q = this.q;\n"+
+			"		for(int i = 0; i < size; i++){\n"+
+			"			q[i] += "+PR+"(theta, ex[i]);\n"+
+			"		}\n"+
+			"		use(theta, 1);\n"+
+			"		double qNew = 0;\n"+
+			"		for(java.util.Map.Entry<"+D+",Integer> used_pi : Theta_used.entrySet()){\n"+
+			"			qNew += used_pi.getValue()*"+PR+"(used_pi.getKey(),exec);\n"+
+			"		}\n"+
+			"		append(theta, exec, qNew, "+P+"(exec));\n"+
+			"		invalidate();\n"+
+			"	}\n"+
+			"	\n"+
+			"	@Override\n"+
+			"	public void updateAll(java.util.List<"+D+"> thetas, java.util.List<"+E+"> new_execs){\n"+
+			"		java.util.Map<"+D+",Integer> counts = count(thetas, new_execs);\n"+
+			"		Object[] ds = counts.keySet().toArray();\n"+
+			"		double[] cs = new double[ds.length];\n"+
+			"		for(int j = 0; j < ds.length; j++){\n"+
+			"			cs[j] = counts.get(ds[j]);\n"+
+			"		}\n"+
+			"		"+E+"[] ex = this.ex;\n"+
+			"		double[] q = this.q;\n"+
+			"		for(int i = 0; i < size; i++){\n"+
+			"			double dq = 0;\n"+
+			"			for(int j = 0; j < ds.length; j++){\n"+
+			"				dq += cs[j]*"+PR+"(("+D+") ds[j], ex[i]);\n"+
+			"			}\n"+
+			"			q[i] += dq;\n"+
+			"		}\n"+
+			"		for(java.util.Map.Entry<"+D+",Integer> entry : counts.entrySet()){\n"+
+			"			use(entry.getKey(), entry.getValue());\n"+
+			"		}\n"+
+			"		for(int k = 0; k < new_execs.size(); k++){\n"+
+			"			"+E+" exec = new_execs.get(k);\n"+
+			"			double qNew = 0;\n"+
+			"			for(java.util.Map.Entry<"+D+",Integer> used_pi : Theta_used.entrySet()){\n"+
+			"				qNew += used_pi.getValue()*"+PR+"(used_pi.getKey(),exec);\n"+
+			"			}\n"+
+			"			append(thetas.get(k), exec, qNew, "+P+"(exec));\n"+
+			"		}\n"+
+			"		invalidate();\n"+
+			"	}\n"+
+			"	\n"+
+			"	@Override\n"+
+			"	public double o("+D+" theta){\n"+
+			"		"+E+"[] ex = this.ex;\n"+
+			"		double[] q = this.q;\n"+
+			"		double[] ps = this.ps;\n"+
+			"		double mean = 0;\n"+
+			"		double norm = 0;\n"+
+			"		for(int i = 0; i < size; i++){\n"+
+						(log_pr == null?
+			"			double w = "+PR+"(theta,ex[i])/q[i];\n" :
+			"			double pr_w = "+PR+"(theta,ex[i]);\n"+
+			"			double w = pr_w >= Double.MIN_NORMAL && q[i] >= Double.MIN_NORMAL? pr_w/q[i] : weight(theta,i);\n")+
+			"			norm += w;\n"+
+			"			mean += w*ps[i];\n"+
+			"		}\n"+
+			"		return norm == 0? mean : mean/norm;\n"+
+			"	}\n"+
+			"	\n"+
+			"	@Override\n"+
+			"	public double n("+D+" theta){\n"+
+			"		"+E+"[] ex = this.ex;\n"+
+			"		double[] q = this.q;\n"+
+			"		double norm = 0;\n"+
+			"		double norm2 = 0;\n"+
+			"		for(int i = 0; i < size; i++){\n"+
+						(log_pr == null?
+			"			double w = "+PR+"(theta,ex[i])/q[i];\n" :
+			"			double pr_w = "+PR+"(theta,ex[i]);\n"+
+			"			double w = pr_w >= Double.MIN_NORMAL && q[i] >= Double.MIN_NORMAL? pr_w/q[i] : weight(theta,i);\n")+
+			"			norm += w;\n"+
+			"			norm2 += w*w;\n"+
+			"		}\n"+
+			"		if(norm == 0){\n"+
+			"			return 0;\n"+
+			"		}\n"+
+			"		return (norm*norm)/norm2*Math.min(norm, 1.0/norm);\n"+
+			"	}\n"+
+			"	\n"+
+			"	@Override\n"+
+			"	public double sim("+D+" theta1, "+D+" theta2){\n"+
+			"		if(n(theta1) == 0 || n(theta2) == 0){\n"+
+			"			return 0;\n"+
+			"		}\n"+
+			"		"+E+"[] ex = this.ex;\n"+
+			"		double[] q = this.q;\n"+
+			"		double sc = 0;\n"+
+			"		double norm1 = 0;\n"+
+			"		double norm2 = 0;\n"+
+			"		for(int i = 0; i < size; i++){\n"+
+						(log_pr == null?
+			"			double w1 = "+PR+"(theta1,ex[i])/q[i];\n" :
+			"			double pr_w1 = "+PR+"(theta1,ex[i]);\n"+
+			"			double w1 = pr_w1 >= Double.MIN_NORMAL && q[i] >= Double.MIN_NORMAL? pr_w1/q[i] : weight(theta1,i);\n")+
+						(log_pr == null?
+			"			double w2 = "+PR+"(theta2,ex[i])/q[i];\n" :
+			"			double pr_w2 = "+PR+"(theta2,ex[i]);\n"+
+			"			double w2 = pr_w2 >= Double.MIN_NORMAL && q[i] >= Double.MIN_NORMAL? pr_w2/q[i] : weight(theta2,i);\n")+
+			"			norm1 += w1;\n"+
+			"			norm2 += w2;\n"+
+			"			sc += Math.min(w1,w2);\n"+
+			"		}\n"+
+			"		return sc/Math.max(norm1, norm2);\n"+
+			"	}\n"+
+			"}\n";
+	}
+
+	static String typeName(java.lang.reflect.Type t){
+		return t.getTypeName().replace('$', '.');
+	}
+
+}
@@ -5,15 +5,22 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
+import is4ape.pm.ApproximateISModel;
+import is4ape.pm.BoundedISEstimates;
 import is4ape.pm.ImportanceSamplingModel;
 import is4ape.pm.IndependentSampleAveragesModel;
 import is4ape.pm.PerformanceModel;
+import is4ape.pm.SketchSimilarity;
 import is4ape.pm.memoize.MemoizePM;
+import is4ape.pm.memoize.Signature;
 
 /**
  * This class provides a fully generic implementation of our proof of concept.
@@ -27,6 +34,10 @@ import is4ape.pm.memoize.MemoizePM;
  * @param <ExecutionType> The type of the execution
  */
 public class PoC<InputType,DesignType,ExecutionType> {
+	static final int BLOCK_SIZE = 1024; //# executions processed at once, when scoring proposals in select
+	//if > 0, sim(theta_inc,.) in updateIncumbent is estimated from a sketch of this size (IS only, see SketchSimilarity)
+	static final int SKETCH_SIZE = Integer.getInteger("poc.sketch", 0);
+	
 	//wb-ACP instance being solved <a,Theta,D,pr,p>
 	final BiFunction<InputType,DesignType,ExecutionType> a; 	//target algorithm
 	final Function<Random,DesignType> globalPrior; 				//Theta (indirectly)
@@ -41,12 +52,21 @@ public class PoC<InputType,DesignType,ExecutionType> {
 	final int N;
 	//initial configuration (if any)
 	final DesignType theta_init;
+	//tolerance used to screen proposals using approximate IS estimates (0: no screening)
+	final double screen_tol;
+	//signature of designs, used to share IS estimates between designs with the same signature (null: none)
+	final Signature<DesignType,ExecutionType> signature;
+	//creates the IS model (null: the generic ImportanceSamplingModel, using p and pr)
+	final Supplier<ImportanceSamplingModel<DesignType,ExecutionType>> is_model;
 	
 	//variables for logging purposes
 	long start_time;
 	File trajFile;
 	
 	PerformanceModel<DesignType,ExecutionType> M; //the current performance 'model'
+	ImportanceSamplingModel<DesignType,ExecutionType> M_is; //the underlying IS model (if any)
+	MemoizePM<DesignType,ExecutionType> M_screen; //approximate view on M, used for screening (if any)
+	SketchSimilarity<DesignType,ExecutionType> M_sketch; //sketch-based similarity estimates (if any)
 	DesignType theta_inc; //the current best design
 	//counters
 	int num_eval;
@@ -69,6 +89,77 @@ public class PoC<InputType,DesignType,ExecutionType> {
 			int N,
 			DesignType theta_init
 			){
+		this(a,globalPrior,localPrior,D,pr,p,K,L,N,theta_init,0);
+	}
+	
+	/**
+	 * Creates an instance of our PoC, screening proposals using approximate IS estimates.
+	 * Only proposals which are not clearly worse than the incumbent (according to their approximate estimate)
+	 * are evaluated using exact estimates and considered for selection.
+	 * 
+	 * @param screen_tol: the tolerance (standard error) of the approximate estimates (0: no screening)
+	 */
+	public PoC(
+			BiFunction<InputType,DesignType,ExecutionType> a,
+			Function<Random,DesignType> globalPrior,
+			BiFunction<DesignType,Random,DesignType> localPrior,
+			Function<Random,InputType> D,
+			BiFunction<DesignType,ExecutionType,Double> pr,
+			Function<ExecutionType,Double> p,
+			double K,
+			int L,
+			int N,
+			DesignType theta_init,
+			double screen_tol
+			){
+		this(a,globalPrior,localPrior,D,pr,p,K,L,N,theta_init,screen_tol,null);
+	}
+	
+	/**
+	 * Creates an instance of our PoC, sharing IS estimates between designs with the same signature,
+	 * i.e. each behaviorally distinct design is only estimated once (per update of E').
+	 * The signature is ignored when using independent sample averages (pr == null).
+	 * 
+	 * @param signature: the signature of designs (see Signature)
+	 */
+	public PoC(
+			BiFunction<InputType,DesignType,ExecutionType> a,
+			Function<Random,DesignType> globalPrior,
+			BiFunction<DesignType,Random,DesignType> localPrior,
+			Function<Random,InputType> D,
+			BiFunction<DesignType,ExecutionType,Double> pr,
+			Function<ExecutionType,Double> p,
+			double K,
+			int L,
+			int N,
+			DesignType theta_init,
+			double screen_tol,
+			Signature<DesignType,ExecutionType> signature
+			){
+		this(a,globalPrior,localPrior,D,pr,p,K,L,N,theta_init,screen_tol,signature,null);
+	}
+	
+	/**
+	 * Creates an instance of our PoC, using a given IS model (e.g. one specialized for the scenario, see SpecializedISModel).
+	 * The model is ignored when using independent sample averages (pr == null).
+	 * 
+	 * @param is_model: creates an (empty) IS model, which should be equivalent to ImportanceSamplingModel(p,pr)
+	 */
+	public PoC(
+			BiFunction<InputType,DesignType,ExecutionType> a,
+			Function<Random,DesignType> globalPrior,
+			BiFunction<DesignType,Random,DesignType> localPrior,
+			Function<Random,InputType> D,
+			BiFunction<DesignType,ExecutionType,Double> pr,
+			Function<ExecutionType,Double> p,
+			double K,
+			int L,
+			int N,
+			DesignType theta_init,
+			double screen_tol,
+			Signature<DesignType,ExecutionType> signature,
+			Supplier<ImportanceSamplingModel<DesignType,ExecutionType>> is_model
+			){
 		this.a = a;
 		this.globalPrior = globalPrior;
 		this.localPrior = localPrior;
@@ -79,6 +170,9 @@ public class PoC<InputType,DesignType,ExecutionType> {
 		this.L = L;
 		this.N = N;
 		this.theta_init = theta_init;
+		this.screen_tol = screen_tol;
+		this.signature = pr == null? null : signature;
+		this.is_model = is_model;
 	}
 	
 	public DesignType minimize(Random rng, File output_file){
@@ -146,10 +240,28 @@ public class PoC<InputType,DesignType,ExecutionType> {
 			System.out.println("PE technique: independent sample averages");
 		}else{
 			//importance sample estimates
-			M = new ImportanceSamplingModel<DesignType,ExecutionType>(p,pr);
+			M_is = is_model == null? new ImportanceSamplingModel<DesignType,ExecutionType>(p,pr) : is_model.get();
+			M = M_is;
 			System.out.println("PE technique: importance sampling");
+			if(is_model != null){
+				System.out.println("IS model: "+M_is.getClass().getName());
+			}
+			if(screen_tol > 0){
+				M_screen = new MemoizePM<DesignType,ExecutionType>(new ApproximateISModel<DesignType,ExecutionType>(M_is,screen_tol,rng),signature);
+				System.out.println("screening tolerance: "+screen_tol);
+			}
+			if(SKETCH_SIZE > 0){
+				M_sketch = new SketchSimilarity<DesignType,ExecutionType>(M_is,SKETCH_SIZE,rng);
+				System.out.println("similarity to the incumbent estimated using sketches of size "+SKETCH_SIZE);
+			}
+		}
+		if(signature != null){
+			signature.clear(); //E' is empty
+		}
+		M = new MemoizePM<DesignType,ExecutionType>(M,signature);
+		if(signature != null){
+			System.out.println("sharing estimates between designs with the same signature");
 		}
-		M = new MemoizePM<DesignType,ExecutionType>(M);
 
 		//initialize counters
 		num_eval = 0;
@@ -163,6 +275,7 @@ public class PoC<InputType,DesignType,ExecutionType> {
 		System.out.println("> EXPLORE "+m+" candidates...");
 		//generate m proposals
 		List<DesignType> Theta_prop = new ArrayList<DesignType>(m);
+		DesignType theta_screened = null; //best proposal screened out (if any)
 		for(int i = 0; i < m; i++){
 			num_prop++;
 			DesignType theta_i;
@@ -173,20 +286,37 @@ public class PoC<InputType,DesignType,ExecutionType> {
 				//use local conditioned on incumbent (50% likelihood)
 				theta_i = localPrior.apply(theta_inc,rng);
 			}
+			if(M_screen != null && M_screen.o(theta_i) - M_screen.unc(theta_i) > M.o(theta_inc)){
+				//clearly worse than the incumbent
+				if(theta_screened == null || M_screen.o(theta_i) < M_screen.o(theta_screened)){
+					theta_screened = theta_i;
+				}
+				System.out.println(theta_i+" (screened, o~: "+M_screen.o(theta_i)+", unc~: "+M_screen.unc(theta_i)+")");
+				continue;
+			}
 			Theta_prop.add(theta_i);
 			updateIncumbent(theta_i);
 			System.out.println(theta_i+" (o: "+M.o(theta_i)+", unc: "+M.unc(theta_i)+", sim(theta_inc): "+M.sim(theta_inc, theta_i)+")");
 		}
+		if(Theta_prop.isEmpty() && theta_screened != null){
+			//all proposals were screened out, consider the most promising one
+			Theta_prop.add(theta_screened);
+			updateIncumbent(theta_screened);
+		}
 		return Theta_prop;
 	}
 	
 	private DesignType select(List<DesignType> Theta_prop, Random rng){
 		System.out.println("> SELECT contender...");
+		if(M_is != null){
+			return selectBounded(Theta_prop);
+		}
+		double o_inc = M.o(theta_inc);
+		double unc_inc = M.unc(theta_inc);
 		double max_val = Double.NEGATIVE_INFINITY;
 		DesignType max_arg = null;
 		for(DesignType theta : Theta_prop){
-			double term1 = M.o(theta_inc) == M.o(theta)? 0 : (M.o(theta_inc) - M.o(theta))/(M.unc(theta_inc) + M.unc(theta));
-			double val = term1 - Math.pow(M.sim(theta_inc,theta),K)/(1-Math.pow(M.sim(theta_inc,theta),K));
+			double val = score(o_inc,unc_inc,M.o(theta),M.unc(theta),M.sim(theta_inc,theta));
 			System.out.println(theta+": "+val);
 			if(val > max_val){
 				max_val = val;
@@ -198,6 +328,92 @@ public class PoC<InputType,DesignType,ExecutionType> {
 		return max_arg;
 	}
 	
+	/*
+	 * Selects the same contender as the above, but computes the IS estimates for each proposal block-wise, 
+	 * abandoning proposals as soon as an upper bound on their score drops below the best score so far.
+	 * Proposals with the same signature as a preceding one are skipped (as ties are broken in favor of the first).
+	 * The estimates for the incumbent are computed once, rather than per proposal (and block).
+	 */
+	private DesignType selectBounded(List<DesignType> Theta_prop){
+		BoundedISEstimates<DesignType,ExecutionType> bounds = new BoundedISEstimates<DesignType,ExecutionType>(M_is,theta_inc);
+		double o_inc = M.o(theta_inc);
+		double unc_inc = M.unc(theta_inc);
+		//process a first block for all proposals, and consider the most promising first
+		List<BoundedISEstimates<DesignType,ExecutionType>.Candidate> cands = new ArrayList<BoundedISEstimates<DesignType,ExecutionType>.Candidate>();
+		List<Integer> order = new ArrayList<Integer>();
+		double[] val_hi = new double[Theta_prop.size()];
+		Set<Object> signatures = new HashSet<Object>();
+		for(int i = 0; i < Theta_prop.size(); i++){
+			if(signature != null && !signatures.add(signature.of(Theta_prop.get(i)))){
+				System.out.println(Theta_prop.get(i)+": (same signature as a preceding proposal)");
+				cands.add(null);
+				continue;
+			}
+			BoundedISEstimates<DesignType,ExecutionType>.Candidate c = bounds.start(Theta_prop.get(i));
+			c.advance(BLOCK_SIZE);
+			cands.add(c);
+			order.add(i);
+			val_hi[i] = scoreUpperBound(o_inc,unc_inc,c,bounds.STD());
+		}
+		order.sort((Integer i, Integer j) -> Double.compare(val_hi[j], val_hi[i]));
+		
+		double max_val = Double.NEGATIVE_INFINITY;
+		int max_idx = -1;
+		for(int i : order){
+			BoundedISEstimates<DesignType,ExecutionType>.Candidate c = cands.get(i);
+			while(true){
+				if(c.isComplete()){
+					double n = c.n();
+					double val = score(o_inc,unc_inc,c.o(), n == 0? Double.POSITIVE_INFINITY : bounds.STD()/Math.sqrt(n), c.sim());
+					System.out.println(c.theta+": "+val);
+					//ties are broken in favor of the first proposal
+					if(val > max_val || (val == max_val && i < max_idx)){
+						max_val = val;
+						max_idx = i;
+					}
+					break;
+				}
+				double ub = scoreUpperBound(o_inc,unc_inc,c,bounds.STD());
+				if(ub < max_val || (ub == max_val && i > max_idx)){
+					System.out.println(c.theta+": <= "+ub+" (pruned)");
+					break;
+				}
+				c.advance(BLOCK_SIZE);
+			}
+		}
+		DesignType max_arg = Theta_prop.get(max_idx == -1? 0 : max_idx);
+		System.out.println("> contender: "+max_arg);
+		return max_arg;
+	}
+	
+	/*
+	 * The score of a proposal in select, i.e. its estimated likelihood to improve on the incumbent,
+	 * penalized for its similarity to the incumbent (whose estimates are o_inc and unc_inc)
+	 */
+	private double score(double o_inc, double unc_inc, double o, double unc, double sim){
+		double term1 = o_inc == o? 0 : (o_inc - o)/(unc_inc + unc);
+		return term1 - Math.pow(sim,K)/(1-Math.pow(sim,K));
+	}
+	
+	/*
+	 * An upper bound on the score of a proposal, given its partial IS estimates
+	 */
+	private double scoreUpperBound(double o_inc, double unc_inc, BoundedISEstimates<DesignType,ExecutionType>.Candidate c, double std){
+		double diff_hi = o_inc - c.o_lo();
+		double term1_hi;
+		if(diff_hi > 0){
+			double n_hi = c.n_hi();
+			double unc_lo = n_hi == 0? Double.POSITIVE_INFINITY : std/Math.sqrt(n_hi);
+			term1_hi = diff_hi/(unc_inc + unc_lo);
+		}else{
+			double n_lo = c.n_lo();
+			double unc_hi = n_lo == 0? Double.POSITIVE_INFINITY : std/Math.sqrt(n_lo);
+			term1_hi = diff_hi/(unc_inc + unc_hi);
+		}
+		double sK = Math.pow(c.sim_lo(),K);
+		return term1_hi - sK/(1-sK);
+	}
+	
 	private void race(DesignType theta_prop, Random rng){
 		System.out.println("> RACE "+theta_inc);
 		//run incumbent
@@ -219,6 +435,9 @@ public class PoC<InputType,DesignType,ExecutionType> {
 			ExecutionType exec = a.apply(x, theta);
 			//update \hat{M}
 			M.update(theta, exec);
+			if(M_screen != null){
+				M_screen.clear();
+			}
 			num_eval++;
 			System.out.println("> Evaluation "+num_eval);
 			System.out.println("theta: "+theta);
@@ -228,7 +447,7 @@ public class PoC<InputType,DesignType,ExecutionType> {
 
 	private void updateIncumbent(DesignType theta){
 		if(theta != theta_inc && M.o(theta_inc) >= M.o(theta)){
-			double sK = Math.pow(M.sim(theta_inc, theta),K);
+			double sK = Math.pow(simInc(theta),K);
 			if(sK*(M.o(theta_inc)-M.o(theta)) >= (1-sK)*(M.unc(theta)-M.unc(theta_inc))){
 				//System.out.println("<o: "+M.o(theta_inc)+",unc: "+M.unc(theta_inc)+">");
 				//System.out.println("<o: "+M.o(theta)+",unc: "+M.unc(theta)+",sim: "+M.sim(theta,theta_inc)+">");
@@ -238,6 +457,18 @@ public class PoC<InputType,DesignType,ExecutionType> {
 		}
 	}
 	
+	/*
+	 * sim(theta_inc,theta), estimated using a sketch (if any)
+	 */
+	private double simInc(DesignType theta){
+		if(M_sketch == null){
+			return M.sim(theta_inc, theta);
+		}
+		double[] est = M_sketch.estimate(theta_inc, theta);
+		System.out.println("sim~: "+est[0]+" (se: "+est[1]+")");
+		return est[0];
+	}
+	
 	private void logCurrentIncumbent(){
 		log(trajFile,num_eval+", "+ M.o(theta_inc)+ ", " +theta_inc+", "+(System.currentTimeMillis()-start_time));
 	}